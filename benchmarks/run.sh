@@ -0,0 +1,13 @@
+#!/usr/bin/env bash
+# Build the plugin + benchmarks and record a baseline for the current commit.
+# Extra arguments are passed to JMH, e.g. ./run.sh VerifyCodeBenchmark -p secrets=1000
+set -euo pipefail
+
+cd "$(dirname "$0")"
+(cd .. && mvn -q -B install -DskipTests)
+mvn -q -B clean package
+
+mkdir -p results
+commit=$(git rev-parse --short HEAD)
+java -jar target/benchmarks.jar -prof gc -rf json -rff "results/${commit}.json" "$@"
+echo "Results written to benchmarks/results/${commit}.json"
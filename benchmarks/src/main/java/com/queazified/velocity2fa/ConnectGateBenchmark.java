@@ -0,0 +1,111 @@
+package com.queazified.velocity2fa;
+
+import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.player.ServerPreConnectEvent;
+import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-connect cost of Velocity2FA.onServerPreConnect and the staff
+ * permission check, for the three kinds of player the gate sees. Players
+ * go through onPostLogin first, as on a live proxy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectGateBenchmark {
+
+    private Path dataDirectory;
+    private Velocity2FA plugin;
+
+    private Player regularPlayer;
+    private Player pendingStaff;
+    private Player authenticatedStaff;
+
+    private ServerPreConnectEvent regularConnect;
+    private ServerPreConnectEvent pendingConnect;
+    private ServerPreConnectEvent authenticatedConnect;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataDirectory = Files.createTempDirectory("velocity2fa-bench");
+        plugin = new Velocity2FA(Stubs.proxy(), NOPLogger.NOP_LOGGER, dataDirectory);
+        plugin.onProxyInitialization(new ProxyInitializeEvent());
+
+        regularPlayer = Stubs.player("Regular", UUID.randomUUID(), Set.of());
+        pendingStaff = Stubs.player("PendingStaff", UUID.randomUUID(), Set.of("velocity2fa.staff"));
+        authenticatedStaff = Stubs.player("AuthedStaff", UUID.randomUUID(), Set.of("velocity2fa.staff"));
+
+        plugin.getTwoFactorManager().generateSecretKey(pendingStaff.getUniqueId());
+        plugin.getTwoFactorManager().generateSecretKey(authenticatedStaff.getUniqueId());
+        plugin.getSessionStore().authenticate(authenticatedStaff.getUniqueId(), SessionStore.DEFAULT_TTL_MILLIS);
+        // The gate reads the state built here
+        plugin.onPostLogin(new PostLoginEvent(regularPlayer));
+        plugin.onPostLogin(new PostLoginEvent(pendingStaff));
+        plugin.onPostLogin(new PostLoginEvent(authenticatedStaff));
+
+        RegisteredServer survival = Stubs.server("survival");
+        regularConnect = new ServerPreConnectEvent(regularPlayer, survival);
+        pendingConnect = new ServerPreConnectEvent(pendingStaff, survival);
+        authenticatedConnect = new ServerPreConnectEvent(authenticatedStaff, survival);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        plugin.onProxyShutdown(new ProxyShutdownEvent());
+        BenchmarkFiles.deleteRecursively(dataDirectory);
+    }
+
+    @Benchmark
+    public ServerPreConnectEvent connectRegularPlayer() {
+        plugin.onServerPreConnect(regularConnect);
+        return regularConnect;
+    }
+
+    @Benchmark
+    public ServerPreConnectEvent connectPendingStaff() {
+        plugin.onServerPreConnect(pendingConnect);
+        return pendingConnect;
+    }
+
+    @Benchmark
+    public ServerPreConnectEvent connectAuthenticatedStaff() {
+        plugin.onServerPreConnect(authenticatedConnect);
+        return authenticatedConnect;
+    }
+
+    @Benchmark
+    public boolean staffPermissionRegular() {
+        // Served from the resolver cache after the first call
+        return plugin.getStaffPermissions().isStaff(regularPlayer);
+    }
+
+    @Benchmark
+    public boolean staffPermissionStaff() {
+        return plugin.getStaffPermissions().isStaff(authenticatedStaff);
+    }
+}
@@ -0,0 +1,70 @@
+package com.queazified.velocity2fa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot write (what saveSecrets used to do on every change) and
+ * snapshot + journal read (loadSecrets) at increasing enrollment counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int secrets;
+
+    private Path dataDirectory;
+    private SecretJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataDirectory = Files.createTempDirectory("velocity2fa-bench");
+        Map<UUID, String> live = new HashMap<>();
+        for (int i = 0; i < secrets; i++) {
+            live.put(UUID.randomUUID(), TotpSecret.generate().encoded());
+        }
+        // Not load()ed, so compact() only writes the snapshot and never truncates a journal
+        journal = new SecretJournal(dataDirectory, NOPLogger.NOP_LOGGER, () -> live);
+        journal.compact();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        journal.close();
+        BenchmarkFiles.deleteRecursively(dataDirectory);
+    }
+
+    @Benchmark
+    public void saveSnapshot() {
+        journal.compact();
+    }
+
+    @Benchmark
+    public Map<UUID, String> loadSnapshot() {
+        return journal.readStoredSecrets();
+    }
+}
@@ -0,0 +1,99 @@
+package com.queazified.velocity2fa;
+
+import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.proxy.server.ServerInfo;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import com.velocitypowered.api.scheduler.Scheduler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Minimal in-process stand-ins for the Velocity proxy, built from dynamic
+ * proxies so the benchmarks do not depend on a running server. Methods
+ * that are not explicitly handled return null / zero / false.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    static Player player(String username, UUID uuid, Set<String> permissions) {
+        return stub(Player.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getUsername" -> username;
+            case "getUniqueId" -> uuid;
+            case "hasPermission" -> permissions.contains((String) args[0]);
+            case "isActive" -> true;
+            case "getCurrentServer" -> Optional.empty();
+            case "getRemoteAddress" -> InetSocketAddress.createUnresolved("127.0.0.1", 25565);
+            default -> null;
+        });
+    }
+
+    static RegisteredServer server(String name) {
+        ServerInfo info = new ServerInfo(name, InetSocketAddress.createUnresolved("127.0.0.1", 25566));
+        return stub(RegisteredServer.class, (proxy, method, args) ->
+            method.getName().equals("getServerInfo") ? info : null);
+    }
+
+    static ProxyServer proxy() {
+        CommandManager commandManager = stub(CommandManager.class, (proxy, method, args) -> null);
+        Scheduler scheduler = scheduler();
+        return stub(ProxyServer.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getCommandManager" -> commandManager;
+            case "getScheduler" -> scheduler;
+            case "getAllPlayers" -> List.of();
+            case "getPlayer" -> Optional.empty();
+            default -> null;
+        });
+    }
+
+    /**
+     * Accepts the plugin's repeating tasks and never runs them; a benchmark
+     * must not have a sweep or save firing in the middle of a measurement
+     */
+    private static Scheduler scheduler() {
+        ScheduledTask task = stub(ScheduledTask.class, (proxy, method, args) -> null);
+        Scheduler.TaskBuilder builder = stub(Scheduler.TaskBuilder.class, (proxy, method, args) ->
+            method.getName().equals("schedule") ? task : proxy);
+        return stub(Scheduler.class, (proxy, method, args) ->
+            method.getName().equals("buildTask") ? builder : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                default:
+                    break;
+            }
+            Object result = handler.invoke(proxy, method, args);
+            if (result == null && method.getReturnType().isPrimitive()) {
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) return false;
+                if (returnType == int.class) return 0;
+                if (returnType == long.class) return 0L;
+                if (returnType == double.class) return 0.0d;
+                if (returnType == float.class) return 0.0f;
+                if (returnType == short.class) return (short) 0;
+                if (returnType == byte.class) return (byte) 0;
+                if (returnType == char.class) return (char) 0;
+            }
+            return result;
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package com.queazified.velocity2fa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of TwoFactorManager.verifyCode for a valid code, a wrong code and a
+ * malformed one. Codes are single use, so after its first call verifyValid
+ * measures a correct code being rejected as a replay, which does the same
+ * HMAC work plus the replay lookup.
+ *
+ * The {@code OnExecutor} variants submit the same call to a PluginExecutor
+ * the way /2fa does, so per-thread state that a virtual thread would throw
+ * away after one task shows up in {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifyCodeBenchmark {
+
+    private Path dataDirectory;
+    private TwoFactorManager manager;
+    private UUID uuid;
+    private TotpSecret secret;
+    private String validCode;
+    private String wrongCode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataDirectory = Files.createTempDirectory("velocity2fa-bench");
+        manager = new TwoFactorManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        uuid = UUID.randomUUID();
+        secret = TotpSecret.fromBase32(manager.generateSecretKey(uuid));
+    }
+
+    @Setup(Level.Iteration)
+    public void refreshCodes() {
+        // Regenerate so the code stays inside the window for the whole iteration
+        long step = System.currentTimeMillis() / 1000L / TotpEngine.TIME_STEP_SECONDS;
+        int code = TotpEngine.generate(secret, step);
+        validCode = String.format("%06d", code);
+        wrongCode = String.format("%06d", (code + 500_000) % 1_000_000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        manager.shutdown();
+        BenchmarkFiles.deleteRecursively(dataDirectory);
+    }
+
+    @Benchmark
+    public boolean verifyValid() {
+        return manager.verifyCode(uuid, validCode);
+    }
+
+    @Benchmark
+    public boolean verifyWrong() {
+        return manager.verifyCode(uuid, wrongCode);
+    }
+
+    @Benchmark
+    public boolean verifyMalformed() {
+        return manager.verifyCode(uuid, "12a456");
+    }
+
+    @Benchmark
+    public boolean verifyValidOnExecutor(OnExecutor executor) {
+        return executor.executor.supplyAsync(() -> manager.verifyCode(uuid, validCode)).join();
+    }
+
+    @Benchmark
+    public boolean verifyWrongOnExecutor(OnExecutor executor) {
+        return executor.executor.supplyAsync(() -> manager.verifyCode(uuid, wrongCode)).join();
+    }
+
+    @State(Scope.Benchmark)
+    public static class OnExecutor {
+        @Param({"virtual", "platform"})
+        public String executorMode;
+
+        PluginExecutor executor;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            executor = new PluginExecutor(executorMode, 4, NOPLogger.NOP_LOGGER);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdown();
+        }
+    }
+}
@@ -4,16 +4,59 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.JoinConfiguration;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionException;
 
 public class AdminCommand implements SimpleCommand {
 
+    static final int SUGGESTION_LIMIT = 50;
+    static final int LIST_PAGE_SIZE = 10;
+    // Not a player UUID: version bits are zero
+    static final UUID CONSOLE = new UUID(0L, 0L);
+
+    /**
+     * Which online 2FA users {@code /2fa-admin list} shows
+     */
+    enum ListFilter {
+        ALL, AUTHENTICATED, PENDING, UNAUTHENTICATED;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+
+        static ListFilter fromName(String name) {
+            for (ListFilter filter : values()) {
+                if (filter.label.equalsIgnoreCase(name)) {
+                    return filter;
+                }
+            }
+            return null;
+        }
+
+        boolean matches(Velocity2FA plugin, UUID uuid) {
+            switch (this) {
+                case AUTHENTICATED:
+                    return plugin.getSessionStore().isAuthenticated(uuid);
+                case PENDING:
+                    return plugin.getPendingAuthentication().contains(uuid);
+                case UNAUTHENTICATED:
+                    return !plugin.getSessionStore().isAuthenticated(uuid);
+                case ALL:
+                default:
+                    return true;
+            }
+        }
+    }
+
     private final Velocity2FA plugin;
 
     public AdminCommand(Velocity2FA plugin) {
@@ -26,8 +69,7 @@ public class AdminCommand implements SimpleCommand {
         String[] args = invocation.arguments();
 
         if (!source.hasPermission("velocity2fa.admin")) {
-            source.sendMessage(Component.text("No permission.")
-                .color(NamedTextColor.RED));
+            source.sendMessage(messages().adminNoPermission);
             return;
         }
 
@@ -39,240 +81,441 @@ public class AdminCommand implements SimpleCommand {
         switch (args[0].toLowerCase()) {
             case "disable":
                 if (args.length < 2) {
-                    source.sendMessage(Component.text("Usage: /2fa-admin disable <player> [code]")
-                        .color(NamedTextColor.RED));
+                    source.sendMessage(messages().usageDisable);
                     return;
                 }
                 disablePlayerTwoFactor(source, args[1], args.length > 2 ? args[2] : null);
                 break;
             case "force-disable":
                 if (args.length < 2) {
-                    source.sendMessage(Component.text("Usage: /2fa-admin force-disable <player>")
-                        .color(NamedTextColor.RED));
+                    source.sendMessage(messages().usageForceDisable);
                     return;
                 }
                 forceDisablePlayerTwoFactor(source, args[1]);
                 break;
             case "status":
                 if (args.length < 2) {
-                    source.sendMessage(Component.text("Usage: /2fa-admin status <player>")
-                        .color(NamedTextColor.RED));
+                    source.sendMessage(messages().usageStatus);
                     return;
                 }
                 showPlayerStatus(source, args[1]);
                 break;
             case "list":
-                listTwoFactorUsers(source);
+                listTwoFactorUsers(source, args);
                 break;
             case "stats":
                 showStats(source);
                 break;
+            case "metrics":
+                showMetrics(source);
+                break;
             case "reload":
                 reloadPlugin(source);
                 break;
+            case "migrate":
+                if (args.length < 2) {
+                    source.sendMessage(messages().usageMigrate);
+                    return;
+                }
+                migrateStorage(source, args[1]);
+                break;
+            case "export":
+                if (args.length < 2) {
+                    source.sendMessage(messages().usageExport);
+                    return;
+                }
+                exportSecrets(source, args[1]);
+                break;
+            case "import":
+                if (args.length < 2) {
+                    source.sendMessage(messages().usageImport);
+                    return;
+                }
+                importSecrets(source, args[1], args.length > 2 ? args[2] : "skip");
+                break;
+            case "rekey":
+                rekeySecrets(source);
+                break;
             default:
                 showAdminHelp(source);
                 break;
         }
     }
 
+    private MessageCatalog messages() {
+        return plugin.getConfigManager().getConfig().messages;
+    }
+
     private void showAdminHelp(CommandSource source) {
-        source.sendMessage(Component.text("=== Velocity2FA Admin Commands ===")
-            .color(NamedTextColor.GOLD));
-        source.sendMessage(Component.text("/2fa-admin disable <player> [code] - Disable player's 2FA (with verification)")
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("/2fa-admin force-disable <player> - Force disable without verification")
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("/2fa-admin status <player> - Check player's 2FA status")
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("/2fa-admin list - List all players with 2FA enabled")
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("/2fa-admin stats - Show 2FA usage statistics")
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("/2fa-admin reload - Reload plugin configuration")
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("==================================")
-            .color(NamedTextColor.GOLD));
+        source.sendMessage(messages().adminHelp);
     }
 
-    private void disablePlayerTwoFactor(CommandSource source, String playerName, String code) {
-        Optional<Player> playerOpt = plugin.getServer().getPlayer(playerName);
-        if (!playerOpt.isPresent()) {
-            source.sendMessage(Component.text("Player not found or not online!")
-                .color(NamedTextColor.RED));
-            return;
+    /**
+     * Online players first, then the last known names of offline ones
+     *
+     * @return the UUID, or null if the name is unknown
+     */
+    private UUID resolvePlayer(Optional<Player> online, String playerName) {
+        if (online.isPresent()) {
+            return online.get().getUniqueId();
         }
+        return plugin.getPlayerIndex().findUuid(playerName);
+    }
 
-        Player target = playerOpt.get();
-        UUID targetUuid = target.getUniqueId();
+    private String displayName(Optional<Player> online, UUID uuid, String playerName) {
+        if (online.isPresent()) {
+            return online.get().getUsername();
+        }
+        String known = plugin.getPlayerIndex().getName(uuid);
+        return known != null ? known : playerName;
+    }
+
+    private void disablePlayerTwoFactor(CommandSource source, String typedName, String code) {
+        Optional<Player> playerOpt = plugin.getServer().getPlayer(typedName);
+        UUID targetUuid = resolvePlayer(playerOpt, typedName);
+        if (targetUuid == null) {
+            source.sendMessage(messages().unknownPlayer(typedName));
+            return;
+        }
+        String playerName = displayName(playerOpt, targetUuid, typedName);
 
         if (!plugin.getTwoFactorManager().hasSecretKey(targetUuid)) {
-            source.sendMessage(Component.text("Player " + playerName + " doesn't have 2FA enabled!")
-                .color(NamedTextColor.RED));
+            source.sendMessage(messages().playerNotEnabled(playerName));
             return;
         }
 
-        if (code != null) {
-            // Verify the code before disabling
-            boolean valid = plugin.getTwoFactorManager().verifyCode(targetUuid, code);
-            if (!valid) {
-                source.sendMessage(Component.text("Invalid 2FA code! Cannot disable 2FA for " + playerName)
-                    .color(NamedTextColor.RED));
-                return;
-            }
+        // Attempts count against whoever types the code, so a mistyping admin can't lock the player out
+        AuthThrottle throttle = plugin.getAuthThrottle();
+        UUID throttleKey = throttleKey(source);
+        String address = addressOf(source);
+        if (code != null && throttle.tryAcquire(throttleKey, address) != AuthThrottle.Decision.ALLOWED) {
+            source.sendMessage(messages().tooManyCodeAttempts);
+            return;
         }
 
-        plugin.getTwoFactorManager().removeSecretKey(targetUuid);
-        plugin.getAuthenticatedPlayers().remove(target.getUsername());
-        plugin.getPendingAuthentication().remove(target.getUsername());
+        plugin.getExecutor().supplyAsync(() -> code == null
+                || plugin.getTwoFactorManager().verifyCode(targetUuid, code))
+            .thenAccept(valid -> {
+                if (!valid) {
+                    throttle.recordFailure(throttleKey, address);
+                    source.sendMessage(messages().disableInvalidCode(playerName));
+                    return;
+                }
+                if (code != null) {
+                    throttle.recordSuccess(throttleKey, address);
+                }
+
+                plugin.getTwoFactorManager().removeSecretKey(targetUuid);
+                plugin.getRoster().setTwoFactor(targetUuid, false);
+                plugin.getAuthStates().setHasSecret(targetUuid, false);
+                plugin.getQrCodes().invalidate(targetUuid);
+                plugin.getSessionStore().invalidate(targetUuid);
+                plugin.getPendingAuthentication().remove(targetUuid);
+
+                source.sendMessage(messages().disableSuccess(playerName));
+                playerOpt.ifPresent(target -> target.sendMessage(messages().disabledByAdmin));
+
+                plugin.getLogger().info("Admin {} disabled 2FA for player {}", 
+                    source instanceof Player ? ((Player) source).getUsername() : "Console", playerName);
+            })
+            .exceptionally(e -> {
+                plugin.getLogger().error("Failed to disable 2FA for {}: {}", playerName, e.getMessage());
+                source.sendMessage(messages().disableFailed(playerName));
+                return null;
+            });
+    }
 
-        source.sendMessage(Component.text("Successfully disabled 2FA for " + playerName)
-            .color(NamedTextColor.GREEN));
-        target.sendMessage(Component.text("Your 2FA has been disabled by an administrator.")
-            .color(NamedTextColor.YELLOW));
+    /**
+     * Throttle bucket for code attempts: the admin's own, or one shared by the console
+     */
+    private static UUID throttleKey(CommandSource source) {
+        return source instanceof Player ? ((Player) source).getUniqueId() : CONSOLE;
+    }
 
-        plugin.getLogger().info("Admin {} disabled 2FA for player {}", 
-            source instanceof Player ? ((Player) source).getUsername() : "Console", playerName);
+    private static String addressOf(CommandSource source) {
+        if (!(source instanceof Player) || ((Player) source).getRemoteAddress() == null) {
+            return null;
+        }
+        return ((Player) source).getRemoteAddress().getHostString();
     }
 
     private void forceDisablePlayerTwoFactor(CommandSource source, String playerName) {
         Optional<Player> playerOpt = plugin.getServer().getPlayer(playerName);
-        UUID targetUuid;
-        String targetName;
-
-        if (playerOpt.isPresent()) {
-            targetUuid = playerOpt.get().getUniqueId();
-            targetName = playerOpt.get().getUsername();
-        } else {
-            // Try to find by stored data (offline removal)
-            // Search secrets.json for UUID by name
-            targetUuid = null;
-            targetName = playerName;
-            for (UUID uuid : plugin.getTwoFactorManager().getAllSecretUUIDs()) {
-                if (uuid.toString().equalsIgnoreCase(playerName)) {
-                    targetUuid = uuid;
-                    break;
-                }
-            }
-            if (targetUuid == null) {
-                source.sendMessage(Component.text("Player must be online for force-disable. Use regular disable with verification instead.")
-                    .color(NamedTextColor.RED));
-                return;
-            }
+        UUID targetUuid = resolvePlayer(playerOpt, playerName);
+        if (targetUuid == null) {
+            source.sendMessage(messages().unknownPlayer(playerName));
+            return;
         }
+        String targetName = displayName(playerOpt, targetUuid, playerName);
 
         if (!plugin.getTwoFactorManager().hasSecretKey(targetUuid)) {
-            source.sendMessage(Component.text("Player " + targetName + " doesn't have 2FA enabled!")
-                .color(NamedTextColor.RED));
+            source.sendMessage(messages().playerNotEnabled(targetName));
             return;
         }
 
-        plugin.getTwoFactorManager().removeSecretKey(targetUuid);
-        plugin.getAuthenticatedPlayers().remove(targetName);
-        plugin.getPendingAuthentication().remove(targetName);
-
-        source.sendMessage(Component.text("Force-disabled 2FA for " + targetName + " (no verification required)")
-            .color(NamedTextColor.GREEN));
-        
-        if (playerOpt.isPresent()) {
-            playerOpt.get().sendMessage(Component.text("Your 2FA has been force-disabled by an administrator.")
-                .color(NamedTextColor.RED));
-        }
-
-        plugin.getLogger().warn("Admin {} force-disabled 2FA for player {} without verification", 
-            source instanceof Player ? ((Player) source).getUsername() : "Console", targetName);
+        // Removing the secret and its recovery codes touches storage; keep it off the command thread
+        plugin.getExecutor().runAsync(() -> plugin.getTwoFactorManager().removeSecretKey(targetUuid))
+            .thenRun(() -> {
+                plugin.getRoster().setTwoFactor(targetUuid, false);
+                plugin.getAuthStates().setHasSecret(targetUuid, false);
+                plugin.getQrCodes().invalidate(targetUuid);
+                plugin.getSessionStore().invalidate(targetUuid);
+                plugin.getPendingAuthentication().remove(targetUuid);
+
+                source.sendMessage(messages().forceDisableSuccess(targetName));
+
+                playerOpt.ifPresent(target -> target.sendMessage(messages().forceDisabledByAdmin));
+
+                plugin.getLogger().warn("Admin {} force-disabled 2FA for player {} without verification",
+                    source instanceof Player ? ((Player) source).getUsername() : "Console", targetName);
+            })
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                plugin.getLogger().error("Failed to force-disable 2FA for {}: {}", targetName, cause.getMessage());
+                source.sendMessage(messages().forceDisableFailed(targetName));
+                return null;
+            });
     }
 
-    private void showPlayerStatus(CommandSource source, String playerName) {
-        Optional<Player> playerOpt = plugin.getServer().getPlayer(playerName);
-        if (!playerOpt.isPresent()) {
-            source.sendMessage(Component.text("Player not found or not online!")
-                .color(NamedTextColor.RED));
+    private void showPlayerStatus(CommandSource source, String typedName) {
+        Optional<Player> playerOpt = plugin.getServer().getPlayer(typedName);
+        UUID targetUuid = resolvePlayer(playerOpt, typedName);
+        if (targetUuid == null) {
+            source.sendMessage(messages().unknownPlayer(typedName));
             return;
         }
+        String playerName = displayName(playerOpt, targetUuid, typedName);
 
-        Player target = playerOpt.get();
-        boolean has2FA = plugin.getTwoFactorManager().hasSecretKey(target.getUniqueId());
-        boolean isAuthenticated = plugin.getAuthenticatedPlayers().containsKey(target.getUsername());
-        boolean isPending = plugin.getPendingAuthentication().contains(target.getUsername());
-        boolean hasStaffPerm = hasStaffPermission(target);
-
-        source.sendMessage(Component.text("=== 2FA Status for " + playerName + " ===")
-            .color(NamedTextColor.GOLD));
-        source.sendMessage(Component.text("2FA Enabled: " + (has2FA ? "✓ Yes" : "✗ No"))
-            .color(has2FA ? NamedTextColor.GREEN : NamedTextColor.RED));
-        source.sendMessage(Component.text("Staff Permission: " + (hasStaffPerm ? "✓ Yes" : "✗ No"))
-            .color(hasStaffPerm ? NamedTextColor.GREEN : NamedTextColor.RED));
-        
-        if (has2FA) {
-            source.sendMessage(Component.text("Authenticated This Session: " + (isAuthenticated ? "✓ Yes" : "✗ No"))
-                .color(isAuthenticated ? NamedTextColor.GREEN : NamedTextColor.RED));
-            source.sendMessage(Component.text("Pending Authentication: " + (isPending ? "⚠ Yes" : "✓ No"))
-                .color(isPending ? NamedTextColor.YELLOW : NamedTextColor.GREEN));
-        }
+        boolean has2FA = plugin.getTwoFactorManager().hasSecretKey(targetUuid);
+        boolean isAuthenticated = plugin.getSessionStore().isAuthenticated(targetUuid);
+        boolean isPending = plugin.getPendingAuthentication().contains(targetUuid);
+
+        // Permissions can't be checked without a connected player
+        Boolean isStaff = playerOpt.map(plugin.getStaffPermissions()::isStaff).orElse(null);
+        source.sendMessage(messages().playerStatus(playerName, has2FA, isStaff, isAuthenticated, isPending));
     }
 
-    private void listTwoFactorUsers(CommandSource source) {
-        List<String> onlineUsers = plugin.getServer().getAllPlayers().stream()
-            .filter(player -> plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId()))
-            .map(Player::getUsername)
-            .collect(Collectors.toList());
-
-        int totalUsers = plugin.getTwoFactorManager().getTotalEnabledUsers();
-
-        source.sendMessage(Component.text("=== Players with 2FA Enabled ===")
-            .color(NamedTextColor.GOLD));
-        source.sendMessage(Component.text("Total: " + totalUsers + " | Online: " + onlineUsers.size())
-            .color(NamedTextColor.YELLOW));
-
-        if (!onlineUsers.isEmpty()) {
-            source.sendMessage(Component.text("Online users with 2FA:")
-                .color(NamedTextColor.AQUA));
-            for (String username : onlineUsers) {
-                Long expiry = plugin.getAuthenticatedPlayers().get(username);
-                boolean authenticated = expiry != null && expiry > System.currentTimeMillis();
-                boolean pending = plugin.getPendingAuthentication().contains(username);
-                
-                String status = authenticated ? " §a✓" : (pending ? " §e⚠" : " §c✗");
-                source.sendMessage(Component.text("- " + username + status)
-                    .color(NamedTextColor.WHITE));
+    private void listTwoFactorUsers(CommandSource source, String[] args) {
+        ListFilter filter = ListFilter.ALL;
+        int page = 1;
+        for (int i = 1; i < args.length; i++) {
+            ListFilter named = ListFilter.fromName(args[i]);
+            if (named != null) {
+                filter = named;
+                continue;
             }
+            try {
+                page = Integer.parseInt(args[i]);
+            } catch (NumberFormatException e) {
+                source.sendMessage(messages().usageList);
+                return;
+            }
+        }
+
+        ListFilter selected = filter;
+        OnlineRoster.Page result = plugin.getRoster().page(uuid -> selected.matches(plugin, uuid), page, LIST_PAGE_SIZE);
+
+        // One chat packet per page however many players are on it
+        List<Component> lines = new ArrayList<>(result.entries.size() + 2);
+        lines.add(messages().listHeader(result.page, result.pages, plugin.getTwoFactorManager().getTotalEnabledUsers(),
+            plugin.getRoster().getOnlineTwoFactor(), filter == ListFilter.ALL ? null : filter.label, result.matched));
+        for (OnlineRoster.Member member : result.entries) {
+            lines.add(messages().listEntry(member.username, plugin.getSessionStore().isAuthenticated(member.uuid),
+                plugin.getPendingAuthentication().contains(member.uuid)));
+        }
+        if (result.page < result.pages) {
+            lines.add(messages().listNextPage(filter.label, result.page + 1));
         }
+        source.sendMessage(Component.join(JoinConfiguration.newlines(), lines));
     }
 
     private void showStats(CommandSource source) {
         int totalEnabled = plugin.getTwoFactorManager().getTotalEnabledUsers();
-        int currentlyAuthenticated = (int) plugin.getAuthenticatedPlayers().values().stream()
-            .filter(expiry -> expiry > System.currentTimeMillis()).count();
+        int currentlyAuthenticated = plugin.getSessionStore().size();
         int pendingAuth = plugin.getPendingAuthentication().size();
-        int totalOnlineStaff = (int) plugin.getServer().getAllPlayers().stream()
-            .filter(this::hasStaffPermission)
-            .count();
-
-        source.sendMessage(Component.text("=== Velocity2FA Statistics ===")
-            .color(NamedTextColor.GOLD));
-        source.sendMessage(Component.text("Total 2FA Enabled: " + totalEnabled)
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("Currently Authenticated: " + currentlyAuthenticated)
-            .color(NamedTextColor.GREEN));
-        source.sendMessage(Component.text("Pending Authentication: " + pendingAuth)
-            .color(NamedTextColor.YELLOW));
-        source.sendMessage(Component.text("Total Online Staff: " + totalOnlineStaff)
-            .color(NamedTextColor.AQUA));
+        int totalOnlineStaff = plugin.getRoster().getOnlineStaff();
+        source.sendMessage(messages().stats(totalEnabled, currentlyAuthenticated, pendingAuth, totalOnlineStaff,
+            plugin.getStaffPermissions(), plugin.getAuthThrottle(), plugin.getExecutor()));
+    }
+
+    private void showMetrics(CommandSource source) {
+        source.sendMessage(messages().metrics(plugin.getMetrics().summary()));
     }
 
     private void reloadPlugin(CommandSource source) {
-        plugin.getConfigManager().reload();
-        source.sendMessage(Component.text("Velocity2FA configuration reloaded!")
-            .color(NamedTextColor.GREEN));
+        plugin.getExecutor().supplyAsync(plugin::reload)
+            .thenAccept(changed -> source.sendMessage(changed ? messages().reloadSuccess : messages().reloadUnchanged))
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                plugin.getLogger().error("Failed to reload configuration: {}", cause.getMessage());
+                source.sendMessage(messages().reloadFailed(cause.getMessage()));
+                return null;
+            });
     }
 
-    private boolean hasStaffPermission(Player player) {
-        return player.hasPermission("staff") || 
-               player.hasPermission("moderator") || 
-               player.hasPermission("admin") ||
-               player.hasPermission("helper") ||
-               player.hasPermission("velocity2fa.staff");
+    private void migrateStorage(CommandSource source, String formatName) {
+        SecretStores.Format target = SecretStores.Format.fromName(formatName);
+        if (target == null) {
+            source.sendMessage(messages().migrateUnknownFormat(formatName));
+            return;
+        }
+
+        source.sendMessage(messages().migrateStarted(target.configName()));
+        plugin.getExecutor().supplyAsync(() -> {
+                try {
+                    return plugin.getTwoFactorManager().migrateTo(target, plugin.getConfigManager().getConfig().sqlDatabase);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            })
+            .thenAccept(copied -> {
+                source.sendMessage(messages().migrateComplete(copied, target.configName()));
+                plugin.getLogger().info("Admin {} copied {} 2FA secrets to {} storage",
+                    source instanceof Player ? ((Player) source).getUsername() : "Console", copied, target.configName());
+            })
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                plugin.getLogger().error("Failed to migrate 2FA secrets: {}", cause.getMessage());
+                source.sendMessage(messages().migrateFailed(cause.getMessage()));
+                return null;
+            });
+    }
+
+    private void rekeySecrets(CommandSource source) {
+        if (!plugin.getTwoFactorManager().isEncrypted()) {
+            source.sendMessage(messages().rekeyEncryptionOff);
+            return;
+        }
+        source.sendMessage(messages().rekeyStarted);
+        plugin.getExecutor().supplyAsync(() -> {
+                try {
+                    return plugin.getTwoFactorManager().reencrypt(true, count -> {
+                        if (count % SecretTransfer.PROGRESS_INTERVAL < SecretStores.MIGRATION_BATCH_SIZE) {
+                            source.sendMessage(messages().rekeyProgress(count));
+                        }
+                    });
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            })
+            .thenAccept(count -> {
+                source.sendMessage(messages().rekeyComplete(count));
+                plugin.getLogger().info("Admin {} re-encrypted {} 2FA secrets with a new key",
+                    source instanceof Player ? ((Player) source).getUsername() : "Console", count);
+            })
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                plugin.getLogger().error("Failed to re-encrypt 2FA secrets: {}", cause.getMessage());
+                source.sendMessage(messages().rekeyFailed(cause.getMessage()));
+                return null;
+            });
+    }
+
+    /**
+     * Resolve a transfer file inside the plugin folder; exports hold every
+     * secret, so they are console only and can't be written elsewhere
+     *
+     * @return the file, or null after telling the source why not
+     */
+    private Path transferFile(CommandSource source, String name) {
+        if (source instanceof Player) {
+            source.sendMessage(messages().transferConsoleOnly);
+            return null;
+        }
+        Path folder = plugin.getDataDirectory().toAbsolutePath().normalize();
+        Path file;
+        try {
+            file = folder.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            file = null;
+        }
+        if (file == null || !file.startsWith(folder) || file.equals(folder)) {
+            source.sendMessage(messages().transferOutsideFolder);
+            return null;
+        }
+        return file;
+    }
+
+    private void exportSecrets(CommandSource source, String name) {
+        Path file = transferFile(source, name);
+        if (file == null) {
+            return;
+        }
+        source.sendMessage(messages().exportStarted(file.getFileName().toString()));
+        plugin.getExecutor().supplyAsync(() -> {
+                try {
+                    return SecretTransfer.export(plugin.getTwoFactorManager(), file, count ->
+                        source.sendMessage(messages().exportProgress(count)));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            })
+            .thenAccept(count -> {
+                source.sendMessage(messages().exportComplete(count, file.getFileName().toString()));
+                plugin.getLogger().warn("Exported {} 2FA secrets unencrypted to {}; keep this file private", count, file);
+            })
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                plugin.getLogger().error("Failed to export 2FA secrets: {}", cause.getMessage());
+                source.sendMessage(messages().exportFailed(cause.getMessage()));
+                return null;
+            });
+    }
+
+    private void importSecrets(CommandSource source, String name, String policyName) {
+        TwoFactorManager.ConflictPolicy policy = TwoFactorManager.ConflictPolicy.fromName(policyName);
+        if (policy == null) {
+            source.sendMessage(messages().importUnknownPolicy(policyName));
+            return;
+        }
+        Path file = transferFile(source, name);
+        if (file == null) {
+            return;
+        }
+        if (!Files.isRegularFile(file)) {
+            source.sendMessage(messages().importNoFile(name));
+            return;
+        }
+
+        source.sendMessage(messages().importStarted(file.getFileName().toString()));
+        plugin.getExecutor().supplyAsync(() -> {
+                try {
+                    return SecretTransfer.importFile(plugin.getTwoFactorManager(), file, policy, count ->
+                        source.sendMessage(messages().importProgress(count)));
+                } catch (IOException | RuntimeException e) {
+                    throw new CompletionException(e);
+                }
+            })
+            .thenAccept(result -> {
+                TwoFactorManager.ImportResult applied = result.applied;
+                // Online players who just gained a secret now need a code
+                long now = System.currentTimeMillis();
+                for (UUID uuid : applied.imported) {
+                    if (applied.conflicts.contains(uuid)) {
+                        // A session proven with the replaced secret must not outlive it
+                        plugin.getSessionStore().invalidate(uuid);
+                    }
+                    plugin.getAuthStates().setHasSecret(uuid, true);
+                    plugin.getRoster().setTwoFactor(uuid, true);
+                    plugin.getQrCodes().invalidate(uuid);
+                    AuthStates.State state = plugin.getAuthStates().get(uuid);
+                    if (state != null && state.isPending(now)) {
+                        plugin.getPendingAuthentication().add(uuid);
+                    } else {
+                        plugin.getPendingAuthentication().remove(uuid);
+                    }
+                }
+                source.sendMessage(messages().importComplete(result.read, applied.added, applied.replaced,
+                    applied.skipped, result.invalid, result.problems));
+                plugin.getLogger().info("Imported 2FA secrets from {}: {} added, {} replaced, {} skipped, {} invalid",
+                    file, applied.added, applied.replaced, applied.skipped, result.invalid);
+            })
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                plugin.getLogger().error("Failed to import 2FA secrets: {}", cause.getMessage());
+                source.sendMessage(messages().importFailed(cause.getMessage()));
+                return null;
+            });
     }
 
     @Override
@@ -281,16 +524,27 @@ public class AdminCommand implements SimpleCommand {
         
         if (args.length <= 1) {
             return CompletableFuture.completedFuture(
-                List.of("disable", "force-disable", "status", "list", "stats", "reload"));
+                List.of("disable", "force-disable", "status", "list", "stats", "metrics", "reload", "migrate",
+                    "export", "import", "rekey"));
         }
         
         if (args.length == 2 && (args[0].equalsIgnoreCase("disable") || 
                                 args[0].equalsIgnoreCase("force-disable") || 
                                 args[0].equalsIgnoreCase("status"))) {
             return CompletableFuture.completedFuture(
-                plugin.getServer().getAllPlayers().stream()
-                    .map(Player::getUsername)
-                    .collect(Collectors.toList()));
+                plugin.getPlayerIndex().complete(args[1], SUGGESTION_LIMIT));
+        }
+        
+        if (args.length == 2 && args[0].equalsIgnoreCase("list")) {
+            return CompletableFuture.completedFuture(List.of("all", "authenticated", "pending", "unauthenticated"));
+        }
+        
+        if (args.length == 3 && args[0].equalsIgnoreCase("import")) {
+            return CompletableFuture.completedFuture(List.of("skip", "overwrite", "fail"));
+        }
+        
+        if (args.length == 2 && args[0].equalsIgnoreCase("migrate")) {
+            return CompletableFuture.completedFuture(List.of("json", "mapped", "h2"));
         }
         
         return CompletableFuture.completedFuture(List.of());
@@ -0,0 +1,129 @@
+package com.queazified.velocity2fa;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 2FA state of every online player, worked out once at PostLogin.
+ *
+ * Each {@link State} folds the staff flag, whether a secret exists and the
+ * session expiry into one {@code unlockedUntil} timestamp, so the connect
+ * gate is a single volatile read. Enrollment, removal, session changes
+ * (including ones from other proxies, via {@link SessionStore.Listener})
+ * and a re-checked staff flag update it in place.
+ */
+public class AuthStates implements SessionStore.Listener {
+
+    private final Map<UUID, State> states = new ConcurrentHashMap<>();
+
+    public State login(UUID uuid, boolean staff, boolean hasSecret, long sessionExpiry) {
+        State state = new State(staff, hasSecret, sessionExpiry);
+        states.put(uuid, state);
+        return state;
+    }
+
+    public void logout(UUID uuid) {
+        states.remove(uuid);
+    }
+
+    /**
+     * @return the state, or null if the player is not online here
+     */
+    public State get(UUID uuid) {
+        return states.get(uuid);
+    }
+
+    /**
+     * Track a change of staff status; ignored for offline players
+     */
+    public void setStaff(UUID uuid, boolean staff) {
+        State state = states.get(uuid);
+        if (state != null) {
+            state.setStaff(staff);
+        }
+    }
+
+    /**
+     * Track an enrollment or removal; ignored for offline players
+     */
+    public void setHasSecret(UUID uuid, boolean hasSecret) {
+        State state = states.get(uuid);
+        if (state != null) {
+            state.setHasSecret(hasSecret);
+        }
+    }
+
+    @Override
+    public void sessionChanged(UUID uuid, long expiry) {
+        State state = states.get(uuid);
+        if (state != null) {
+            state.setSessionExpiry(expiry);
+        }
+    }
+
+    public static final class State {
+        private boolean staff;
+        private boolean hasSecret;
+        private long sessionExpiry;
+        private boolean prompted;
+        private volatile long unlockedUntil;
+
+        State(boolean staff, boolean hasSecret, long sessionExpiry) {
+            this.staff = staff;
+            this.hasSecret = hasSecret;
+            this.sessionExpiry = sessionExpiry;
+            recompute();
+        }
+
+        /**
+         * Whether the player may join any server right now
+         */
+        public boolean isUnlocked(long now) {
+            return unlockedUntil > now;
+        }
+
+        public synchronized boolean isStaff() { return staff; }
+        public synchronized boolean hasSecret() { return hasSecret; }
+        public synchronized long getSessionExpiry() { return sessionExpiry; }
+
+        /**
+         * Staff with a secret who have not entered a code yet
+         */
+        public boolean isPending(long now) {
+            return !isUnlocked(now);
+        }
+
+        /**
+         * Claim the one-off login prompt
+         *
+         * @return true the first time it is called while a code is needed
+         */
+        public synchronized boolean claimPrompt(long now) {
+            if (prompted || isUnlocked(now)) {
+                return false;
+            }
+            prompted = true;
+            return true;
+        }
+
+        synchronized void setStaff(boolean staff) {
+            this.staff = staff;
+            recompute();
+        }
+
+        synchronized void setHasSecret(boolean hasSecret) {
+            this.hasSecret = hasSecret;
+            recompute();
+        }
+
+        synchronized void setSessionExpiry(long expiry) {
+            this.sessionExpiry = expiry;
+            recompute();
+        }
+
+        private void recompute() {
+            unlockedUntil = staff && hasSecret ? sessionExpiry : Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.queazified.velocity2fa;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Brute-force protection for code verification.
+ *
+ * Every attempt has to take a token from both the player's bucket and the
+ * bucket of the address it came from; buckets hold {@code maxAuthAttempts}
+ * tokens and refill slowly. After {@code maxAuthAttempts} consecutive
+ * failures the key is locked out, for twice as long each time. Addresses get
+ * {@link #ADDRESS_FACTOR} times the allowance since several staff members can
+ * share one. All of this runs before any HMAC is computed.
+ */
+public class AuthThrottle {
+
+    public enum Decision { ALLOWED, THROTTLED, LOCKED_OUT }
+
+    static final long REFILL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    static final long BASE_LOCKOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_LOCKOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long IDLE_EVICT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final int ADDRESS_FACTOR = 5;
+
+    private final Map<Object, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder lockedOut = new LongAdder();
+    private final LongAdder lockouts = new LongAdder();
+    private volatile int maxAttempts;
+
+    public AuthThrottle(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Take a token for this attempt from the player and the address
+     *
+     * @param address remote host, or null if unknown
+     */
+    public Decision tryAcquire(UUID uuid, String address) {
+        long now = System.currentTimeMillis();
+        int limit = maxAttempts;
+        Decision decision = bucket(uuid, now, limit).tryAcquire(now, limit);
+        if (decision == Decision.ALLOWED && address != null) {
+            decision = bucket(address, now, limit * ADDRESS_FACTOR).tryAcquire(now, limit * ADDRESS_FACTOR);
+        }
+        if (decision == Decision.THROTTLED) {
+            throttled.increment();
+        } else if (decision == Decision.LOCKED_OUT) {
+            lockedOut.increment();
+        }
+        return decision;
+    }
+
+    /**
+     * @return true if this failure started a lockout
+     */
+    public boolean recordFailure(UUID uuid, String address) {
+        long now = System.currentTimeMillis();
+        int limit = maxAttempts;
+        boolean locked = bucket(uuid, now, limit).recordFailure(now, limit);
+        if (address != null) {
+            locked |= bucket(address, now, limit * ADDRESS_FACTOR).recordFailure(now, limit * ADDRESS_FACTOR);
+        }
+        if (locked) {
+            lockouts.increment();
+        }
+        return locked;
+    }
+
+    public void recordSuccess(UUID uuid, String address) {
+        Bucket bucket = buckets.get(uuid);
+        if (bucket != null) {
+            bucket.reset(maxAttempts);
+        }
+        if (address != null) {
+            bucket = buckets.get(address);
+            if (bucket != null) {
+                bucket.clearFailures();
+            }
+        }
+    }
+
+    /**
+     * Remaining lockout for the player in millis, or 0
+     */
+    public long getLockoutRemaining(UUID uuid) {
+        Bucket bucket = buckets.get(uuid);
+        return bucket == null ? 0 : Math.max(0, bucket.lockedUntil - System.currentTimeMillis());
+    }
+
+    public void reload(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Drop buckets that are full, unlocked and idle; run periodically
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    public long getThrottledAttempts() { return throttled.sum(); }
+    public long getLockedOutAttempts() { return lockedOut.sum(); }
+    public long getLockouts() { return lockouts.sum(); }
+    public int getTrackedKeys() { return buckets.size(); }
+
+    private Bucket bucket(Object key, long now, int capacity) {
+        return buckets.computeIfAbsent(key, k -> new Bucket(capacity, now));
+    }
+
+    private static final class Bucket {
+        private int tokens;
+        private long lastRefill;
+        private long lastActivity;
+        private int failures;
+        private int lockoutLevel;
+        private volatile long lockedUntil;
+
+        Bucket(int tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefill = now;
+            this.lastActivity = now;
+        }
+
+        synchronized Decision tryAcquire(long now, int capacity) {
+            lastActivity = now;
+            if (lockedUntil > now) {
+                return Decision.LOCKED_OUT;
+            }
+            long refills = (now - lastRefill) / REFILL_INTERVAL_MILLIS;
+            if (refills > 0) {
+                tokens = (int) Math.min(capacity, tokens + refills);
+                lastRefill += refills * REFILL_INTERVAL_MILLIS;
+            }
+            if (tokens <= 0) {
+                return Decision.THROTTLED;
+            }
+            tokens--;
+            return Decision.ALLOWED;
+        }
+
+        synchronized boolean recordFailure(long now, int maxAttempts) {
+            lastActivity = now;
+            if (++failures < maxAttempts) {
+                return false;
+            }
+            long lockout = Math.min(MAX_LOCKOUT_MILLIS, BASE_LOCKOUT_MILLIS << Math.min(lockoutLevel, 16));
+            lockedUntil = now + lockout;
+            lockoutLevel++;
+            failures = 0;
+            return true;
+        }
+
+        synchronized void reset(int capacity) {
+            tokens = capacity;
+            failures = 0;
+            lockoutLevel = 0;
+            lockedUntil = 0;
+        }
+
+        synchronized void clearFailures() {
+            failures = 0;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return lockedUntil <= now && failures == 0 && now - lastActivity > IDLE_EVICT_MILLIS;
+        }
+    }
+}
@@ -2,25 +2,52 @@ package com.queazified.velocity2fa;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Owns config.json. The parsed and validated config is published as an
+ * immutable {@link ConfigSnapshot} through a volatile field, so
+ * {@link #getConfig()} is a single volatile read and a reload can never be
+ * observed half-done. A reload that fails to parse or validate keeps the
+ * previous snapshot.
+ */
 public class ConfigManager {
-    
+
+    static final long WATCH_DEBOUNCE_MILLIS = 500;
+
     private final Path dataDirectory;
-    private final File configFile;
+    private final Path configFile;
+    private final Logger logger;
     private final Gson gson;
-    private Config config;
+    private volatile ConfigSnapshot config;
+    // Why config.json was unusable at startup; null if it loaded
+    private volatile String startupProblem;
+    // Raw bytes behind the current snapshot, so unchanged files aren't re-parsed
+    private byte[] loadedBytes;
+    private WatchService watchService;
 
-    public ConfigManager(Path dataDirectory) {
+    public ConfigManager(Path dataDirectory, Logger logger) {
         this.dataDirectory = dataDirectory;
-        this.configFile = dataDirectory.resolve("config.json").toFile();
+        this.configFile = dataDirectory.resolve("config.json");
+        this.logger = logger;
         this.gson = new GsonBuilder().setPrettyPrinting().create();
         
         // Create data directory if it doesn't exist
@@ -29,7 +56,7 @@ public class ConfigManager {
                 dataDirectory.toFile().mkdirs();
             }
         } catch (Exception e) {
-            System.err.println("Failed to create data directory: " + e.getMessage());
+            logger.error("Failed to create data directory: {}", e.getMessage());
         }
         
         loadConfig();
@@ -39,48 +66,183 @@ public class ConfigManager {
      * Load configuration from file
      */
     private void loadConfig() {
-        if (!configFile.exists()) {
+        if (!Files.exists(configFile)) {
             // Create default config
-            config = new Config();
-            saveConfig();
+            config = ConfigSnapshot.defaults();
+            saveConfig(new Config());
             return;
         }
 
-        try (FileReader reader = new FileReader(configFile)) {
-            config = gson.fromJson(reader, Config.class);
-            if (config == null) {
-                config = new Config();
-                saveConfig();
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to load config, using defaults: " + e.getMessage());
-            config = new Config();
+        try {
+            load();
+        } catch (IllegalStateException e) {
+            // Defaults keep messages and permissions working, but they name the wrong storage and no encryption
+            logger.error("Invalid config.json, using defaults until it is fixed: {}", e.getMessage());
+            startupProblem = e.getMessage();
+            config = ConfigSnapshot.defaults();
         }
     }
 
     /**
      * Save configuration to file
      */
-    private void saveConfig() {
-        try (FileWriter writer = new FileWriter(configFile)) {
-            gson.toJson(config, writer);
+    private void saveConfig(Config defaults) {
+        try (Writer writer = Files.newBufferedWriter(configFile, StandardCharsets.UTF_8)) {
+            gson.toJson(defaults, writer);
         } catch (IOException e) {
-            System.err.println("Failed to save config: " + e.getMessage());
+            logger.error("Failed to save config: {}", e.getMessage());
+            return;
         }
+        synchronized (this) {
+            try {
+                loadedBytes = Files.readAllBytes(configFile);
+            } catch (IOException e) {
+                loadedBytes = null;
+            }
+        }
+    }
+
+    /**
+     * Why config.json could not be used at startup, or null if it was. The
+     * defaults standing in for it must not choose the secret storage; a
+     * later reload doesn't clear this, since storage is only opened once.
+     */
+    public String getStartupProblem() {
+        return startupProblem;
     }
 
     /**
      * Get current configuration
      */
-    public Config getConfig() {
+    public ConfigSnapshot getConfig() {
         return config;
     }
 
     /**
-     * Reload configuration from file
+     * Reload configuration from file if it changed
+     *
+     * @return true if a new snapshot was published
+     * @throws IllegalStateException if the file can't be read, parsed or
+     *         validated; the previous snapshot stays in place
      */
-    public void reload() {
-        loadConfig();
+    public synchronized boolean reload() {
+        return load();
+    }
+
+    private synchronized boolean load() {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(configFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read config.json: " + e.getMessage(), e);
+        }
+        if (config != null && Arrays.equals(bytes, loadedBytes)) {
+            return false;
+        }
+
+        ConfigSnapshot loaded;
+        try {
+            Config parsed = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Config.class);
+            if (parsed == null) {
+                throw new IllegalStateException("config.json is empty");
+            }
+            loaded = ConfigSnapshot.of(parsed);
+        } catch (JsonParseException | IllegalArgumentException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+
+        ConfigSnapshot previous = config;
+        if (previous != null && (!previous.executorMode.equals(loaded.executorMode)
+                || !previous.storageFormat.equals(loaded.storageFormat)
+                || !Objects.equals(previous.sqlDatabase, loaded.sqlDatabase)
+                || !previous.sessionSharing.equals(loaded.sessionSharing)
+                || !Objects.equals(previous.sessionSharingDirectory, loaded.sessionSharingDirectory)
+                || previous.metricsPort != loaded.metricsPort
+                || !previous.encryption.equals(loaded.encryption)
+                || !Objects.equals(previous.encryptionKeyFile, loaded.encryptionKeyFile)
+                || previous.executorThreads != loaded.executorThreads)) {
+            logger.info("executorMode, executorThreads, storageFormat, sqlDatabase, sessionSharing, metricsPort and encryption changes apply after a restart");
+        }
+        loadedBytes = bytes;
+        config = loaded;
+        return true;
+    }
+
+    /**
+     * Reload automatically whenever config.json is written. Bursts of events
+     * (editors often write a file several times) are collapsed into one
+     * reload once the file has been quiet for {@link #WATCH_DEBOUNCE_MILLIS}.
+     *
+     * @param onReload called on the watcher thread with each new snapshot
+     */
+    public synchronized void startWatching(Consumer<ConfigSnapshot> onReload) {
+        if (watchService != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dataDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.warn("Could not watch config.json for changes, use /2fa-admin reload: {}", e.getMessage());
+            return;
+        }
+        WatchService watcher = watchService;
+        Thread thread = new Thread(() -> watch(watcher, onReload), "Velocity2FA-ConfigWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the file watcher, if running
+     */
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close config watcher: {}", e.getMessage());
+            }
+            watchService = null;
+        }
+    }
+
+    private void watch(WatchService watcher, Consumer<ConfigSnapshot> onReload) {
+        try {
+            while (true) {
+                boolean changed = drain(watcher.take());
+                WatchKey next;
+                while ((next = watcher.poll(WATCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drain(next);
+                }
+                if (!changed) {
+                    continue;
+                }
+                try {
+                    if (reload()) {
+                        logger.info("config.json changed, configuration reloaded");
+                        onReload.accept(config);
+                    }
+                } catch (IllegalStateException e) {
+                    logger.warn("config.json changed but is invalid, keeping the previous configuration: {}",
+                        e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || configFile.getFileName().equals(event.context())) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
     }
 
     /**
@@ -95,10 +257,25 @@ public class ConfigManager {
         public List<String> staffPermissions = Arrays.asList(
             "staff", "moderator", "admin", "helper", "velocity2fa.staff"
         );
-        public int codeWindow = 3; // Number of 30-second windows to allow
+        public int codeWindow = 3; // Number of time steps to allow, centered on now
+        public int codeTimeStep = 30; // Seconds per code
+        public int codeDigits = 6; // 6 to 8
+        public String codeAlgorithm = "SHA1"; // SHA1, SHA256 or SHA512
         public boolean logAuthAttempts = true;
         public boolean kickOnFailedAuth = false;
         public int maxAuthAttempts = 3;
+        public int enrollmentTimeoutSeconds = 600; // How long /2fa setup waits for the first code before it is discarded
+        public String executorMode = "virtual"; // virtual, platform or caller
+        public int executorThreads = 4; // Pool size for the platform mode
+        public String storageFormat = "json"; // json, mapped for very large secret counts, or h2
+        public String sqlDatabase = ""; // h2 database file without extension; empty for the plugin folder
+        public String sessionSharing = "none"; // none, or file to share sessions through sessionSharingDirectory
+        public String sessionSharingDirectory = ""; // folder every proxy can reach; serverName must be unique per proxy
+        public int metricsPort = 0; // Prometheus endpoint on 127.0.0.1; 0 turns it off
+        public String encryption = "none"; // none, keyfile or passphrase (AES-GCM encrypted secrets)
+        public String encryptionKeyFile = ""; // key file, absolute or relative to the plugin folder; empty for secrets.key
+        public String encryptionPassphrase = ""; // empty to read VELOCITY2FA_PASSPHRASE from the environment
+        public String qrImageDirectory = ""; // also write setup QR codes as <uuid>.png here; empty for chat only
         public Messages messages = new Messages();
 
         public static class Messages {
@@ -113,6 +290,131 @@ public class ConfigManager {
             public String setupInstructions = "§e1. Install an authenticator app (Google Authenticator, Authy, etc.)";
             public String scanQR = "§e2. Scan this QR code or enter the secret manually:";
             public String completeSetup = "§e3. After setup, use /2fa <code> to verify and complete setup";
+            public String setupComplete = "§a✓ 2FA is now enabled on your account.";
+            public String recoveryCodes = "§6Recovery codes (each works once in place of /2fa <code>). Keep them somewhere safe:";
+            public String recoveryCodeUsed = "§eRecovery code accepted. {remaining} left; use /2fa recovery for a new set.";
+            public String recoveryCodesFailed = "§cYour recovery codes could not be saved. Use /2fa recovery to try again.";
+            public String recoveryVerifyFirst = "§cEnter a current code with /2fa <code> before generating new recovery codes.";
+            public String setupTitle = "§6=== 2FA Setup ===";
+            public String secretKey = "§aSecret Key: {secret}";
+            public String setupFailed = "§cFailed to set up 2FA, please try again later.";
+            public String tooFast = "§cYou're entering codes too quickly, please wait a moment.";
+            public String lockedOut = "§cToo many failed 2FA attempts. Try again in {seconds} seconds.";
+            public String tooManyFailures = "§cToo many failed 2FA attempts.";
+            public String mustAuthenticate = "§cYou must authenticate with 2FA first! Use /2fa <code>";
+            public String limboOnly = "§eYou may only join the lobby/limbo server until authenticated.";
+            public String playersOnly = "§cOnly players can use this command!";
+            public String verifyUsage = "§cUsage: /2fa verify <code>";
+            public String notEnabled = "§cYou don't have 2FA enabled.";
+            public String disableInstructions = "§eTo disable 2FA, please provide your current 2FA code:";
+            public String disableCommand = "§eUse: /2fa-admin disable {player} <code>";
+            public List<String> help = Arrays.asList(
+                "§6=== Velocity2FA Commands ===",
+                "§e/2fa setup - Set up 2FA for your account",
+                "§e/2fa <code> - Verify your 2FA code",
+                "§e/2fa verify <code> - Verify your 2FA code",
+                "§e/2fa disable - Disable 2FA (requires current code)",
+                "§e/2fa status - Check your 2FA status",
+                "§e/2fa recovery - Get a new set of recovery codes"
+            );
+            public String statusTitle = "§6=== Your 2FA Status ===";
+            public String playerStatusTitle = "§6=== 2FA Status for {player} ===";
+            public String statusEnabled = "§a2FA Enabled: ✓ Yes";
+            public String statusNotEnabled = "§c2FA Enabled: ✗ No";
+            public String statusStaff = "§aStaff Permission: ✓ Yes";
+            public String statusNotStaff = "§cStaff Permission: ✗ No";
+            public String statusStaffUnknown = "§7Staff Permission: ? (offline)";
+            public String statusSetupPending = "§eSetup Pending: ⚠ Yes, use /2fa <code> to finish";
+            public String statusAuthenticated = "§aAuthenticated This Session: ✓ Yes";
+            public String statusNotAuthenticated = "§cAuthenticated This Session: ✗ No";
+            public String statusPending = "§ePending Authentication: ⚠ Yes";
+            public String statusNotPending = "§aPending Authentication: ✓ No";
+            public String statusRecoveryCodes = "§aRecovery Codes Left: {count}";
+            public String statusNoRecoveryCodes = "§eRecovery Codes Left: 0";
+            public String statusSessionExpires = "§bSession expires in: {minutes} min";
+            public String disabledByAdmin = "§eYour 2FA has been disabled by an administrator.";
+            public String forceDisabledByAdmin = "§cYour 2FA has been force-disabled by an administrator.";
+            public String adminNoPermission = "§cNo permission.";
+            public List<String> adminHelp = Arrays.asList(
+                "§6=== Velocity2FA Admin Commands ===",
+                "§e/2fa-admin disable <player> [code] - Disable player's 2FA (with verification)",
+                "§e/2fa-admin force-disable <player> - Force disable without verification",
+                "§e/2fa-admin status <player> - Check player's 2FA status",
+                "§e/2fa-admin list [filter] [page] - List online players with 2FA enabled",
+                "§e/2fa-admin stats - Show 2FA usage statistics",
+                "§e/2fa-admin metrics - Show latency and counter metrics",
+                "§e/2fa-admin reload - Reload plugin configuration",
+                "§e/2fa-admin migrate <json|mapped|h2> - Copy all secrets to another storage backend",
+                "§e/2fa-admin export <file> - Write all secrets to a .json or .csv file (console only)",
+                "§e/2fa-admin import <file> [skip|overwrite|fail] - Load secrets from an export (console only)",
+                "§e/2fa-admin rekey - Re-encrypt all secrets with a new key in the background",
+                "§6=================================="
+            );
+            public String usageDisable = "§cUsage: /2fa-admin disable <player> [code]";
+            public String usageForceDisable = "§cUsage: /2fa-admin force-disable <player>";
+            public String usageStatus = "§cUsage: /2fa-admin status <player>";
+            public String usageList = "§cUsage: /2fa-admin list [all|authenticated|pending|unauthenticated] [page]";
+            public String usageMigrate = "§cUsage: /2fa-admin migrate <json|mapped|h2>";
+            public String usageExport = "§cUsage: /2fa-admin export <file.json|file.csv>";
+            public String usageImport = "§cUsage: /2fa-admin import <file.json|file.csv> [skip|overwrite|fail]";
+            public String unknownPlayer = "§cUnknown player {player}!";
+            public String playerNotEnabled = "§cPlayer {player} doesn't have 2FA enabled!";
+            public String tooManyCodeAttempts = "§cToo many code attempts, try again later.";
+            public String disableInvalidCode = "§cInvalid 2FA code! Cannot disable 2FA for {player}";
+            public String disableSuccess = "§aSuccessfully disabled 2FA for {player}";
+            public String disableFailed = "§cFailed to disable 2FA for {player}, see the console.";
+            public String forceDisableSuccess = "§aForce-disabled 2FA for {player} (no verification required)";
+            public String forceDisableFailed = "§cFailed to force-disable 2FA for {player}, see the console.";
+            public String listTitle = "§6=== Players with 2FA Enabled ({page}/{pages}) ===";
+            public String listTotals = "§eTotal: {total} | Online: {online}";
+            public String listTotalsFiltered = "§eTotal: {total} | Online: {online} | {filter}: {matched}";
+            public String listAuthenticated = "§f- {player} §a✓";
+            public String listPending = "§f- {player} §e⚠";
+            public String listUnauthenticated = "§f- {player} §c✗";
+            public String listNextPage = "§7Next page: /2fa-admin list {filter} {page}";
+            public List<String> stats = Arrays.asList(
+                "§6=== Velocity2FA Statistics ===",
+                "§eTotal 2FA Enabled: {enabled}",
+                "§aCurrently Authenticated: {authenticated}",
+                "§ePending Authentication: {pending}",
+                "§bTotal Online Staff: {staff}",
+                "§7Permission Cache: {cacheHits} hits / {cacheMisses} misses",
+                "§7Throttled Attempts: {throttled} | Locked Out Attempts: {lockedOut} | Lockouts: {lockouts}",
+                "§7Executor ({executor}): {queued} queued, {completed} done, avg {averageMicros}µs, max {maxMicros}µs"
+            );
+            public String metricsTitle = "§6=== Velocity2FA Metrics ===";
+            public String metricsLine = "§7{line}";
+            public String reloadSuccess = "§aVelocity2FA configuration reloaded!";
+            public String reloadUnchanged = "§econfig.json is unchanged, nothing to reload.";
+            public String reloadFailed = "§cInvalid configuration, keeping the previous one: {error}";
+            public String migrateUnknownFormat = "§cUnknown storage format {format}! Use json, mapped or h2.";
+            public String migrateStarted = "§eCopying 2FA secrets to {format} storage...";
+            public List<String> migrateComplete = Arrays.asList(
+                "§aCopied {count} secrets to {format} storage.",
+                "§eSet \"storageFormat\": \"{format}\" in config.json and restart the proxy to switch."
+            );
+            public String migrateFailed = "§cMigration failed: {error}";
+            public String rekeyEncryptionOff = "§cSecret encryption is off. Set \"encryption\" in config.json and restart first.";
+            public String rekeyStarted = "§eRe-encrypting 2FA secrets with a new key; verification keeps working meanwhile...";
+            public String rekeyProgress = "§7Re-encrypted {count} secrets so far...";
+            public String rekeyComplete = "§aRe-encrypted {count} secrets; the old key has been retired.";
+            public String rekeyFailed = "§cRe-encryption failed: {error}";
+            public String transferConsoleOnly = "§cOnly the console can import or export 2FA secrets.";
+            public String transferOutsideFolder = "§cThe file must be inside the plugin folder.";
+            public String exportStarted = "§eExporting 2FA secrets to {file}...";
+            public String exportProgress = "§7Exported {count} secrets so far...";
+            public List<String> exportComplete = Arrays.asList(
+                "§aExported {count} secrets to {file}.",
+                "§eThe file holds every secret unencrypted. Keep it private and delete it once imported."
+            );
+            public String exportFailed = "§cExport failed: {error}";
+            public String importUnknownPolicy = "§cUnknown conflict policy {policy}! Use skip, overwrite or fail.";
+            public String importNoFile = "§cNo file named {file} in the plugin folder.";
+            public String importStarted = "§eImporting 2FA secrets from {file}...";
+            public String importProgress = "§7Read {count} entries so far...";
+            public String importComplete = "§aImported {read} entries: {added} added, {replaced} replaced, {skipped} skipped, {invalid} invalid";
+            public String importProblem = "§7Invalid: {problem}";
+            public String importFailed = "§cImport failed, nothing was changed: {error}";
         }
     }
 }
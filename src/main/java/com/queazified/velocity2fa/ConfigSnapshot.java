@@ -0,0 +1,217 @@
+package com.queazified.velocity2fa;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A validated, immutable view of config.json.
+ *
+ * {@link ConfigManager} parses the file into a {@link ConfigManager.Config},
+ * checks it here and publishes the result through one volatile reference,
+ * so readers always see a complete, consistent config and never a
+ * half-applied reload. Values that would otherwise be recomputed on every
+ * event (the cleaned-up permission list, the parsed HMAC algorithm) are
+ * derived once.
+ */
+public final class ConfigSnapshot {
+
+    public final String serverName;
+    public final String limboServer;
+    public final String issuerName;
+    public final boolean enforceFor2FA;
+    public final boolean requireCodeOnJoin;
+    /** Trimmed, de-duplicated and never empty */
+    public final List<String> staffPermissions;
+    public final int codeWindow;
+    public final int codeTimeStep;
+    public final int codeDigits;
+    public final TotpEngine.Algorithm codeAlgorithm;
+    public final boolean logAuthAttempts;
+    public final boolean kickOnFailedAuth;
+    public final int maxAuthAttempts;
+    public final int enrollmentTimeoutSeconds;
+    public final String executorMode;
+    public final int executorThreads;
+    public final String storageFormat;
+    /** h2 database file without extension, or null for the plugin folder */
+    public final Path sqlDatabase;
+    /** none or file */
+    public final String sessionSharing;
+    /** Shared folder for the file transport, or null when sharing is off */
+    public final Path sessionSharingDirectory;
+    /** 0 when the metrics endpoint is off */
+    public final int metricsPort;
+    /** none, keyfile or passphrase */
+    public final String encryption;
+    /** Relative to the plugin folder, or null for secrets.key */
+    public final Path encryptionKeyFile;
+    final String encryptionPassphrase;
+    /** Where setup QR codes are written as PNG, relative to the plugin folder; null for chat only */
+    public final Path qrImageDirectory;
+    /** Parsed once per load */
+    public final MessageCatalog messages;
+
+    private ConfigSnapshot(ConfigManager.Config config, List<String> staffPermissions, TotpEngine.Algorithm algorithm) {
+        this.serverName = config.serverName;
+        this.limboServer = config.limboServer.trim();
+        this.issuerName = config.issuerName;
+        this.enforceFor2FA = config.enforceFor2FA;
+        this.requireCodeOnJoin = config.requireCodeOnJoin;
+        this.staffPermissions = List.copyOf(staffPermissions);
+        this.codeWindow = config.codeWindow;
+        this.codeTimeStep = config.codeTimeStep;
+        this.codeDigits = config.codeDigits;
+        this.codeAlgorithm = algorithm;
+        this.logAuthAttempts = config.logAuthAttempts;
+        this.kickOnFailedAuth = config.kickOnFailedAuth;
+        this.maxAuthAttempts = config.maxAuthAttempts;
+        this.enrollmentTimeoutSeconds = config.enrollmentTimeoutSeconds;
+        this.executorMode = config.executorMode.trim().toLowerCase(Locale.ROOT);
+        this.executorThreads = config.executorThreads;
+        this.storageFormat = config.storageFormat.trim().toLowerCase(Locale.ROOT);
+        this.sqlDatabase = isBlank(config.sqlDatabase) ? null : Paths.get(config.sqlDatabase.trim());
+        this.sessionSharing = config.sessionSharing.trim().toLowerCase(Locale.ROOT);
+        this.sessionSharingDirectory = isBlank(config.sessionSharingDirectory)
+            ? null : Paths.get(config.sessionSharingDirectory.trim());
+        this.metricsPort = config.metricsPort;
+        this.encryption = config.encryption.trim().toLowerCase(Locale.ROOT);
+        this.encryptionKeyFile = isBlank(config.encryptionKeyFile) ? null : Paths.get(config.encryptionKeyFile.trim());
+        this.encryptionPassphrase = config.encryptionPassphrase;
+        this.qrImageDirectory = isBlank(config.qrImageDirectory) ? null : Paths.get(config.qrImageDirectory.trim());
+        this.messages = MessageCatalog.of(config.messages);
+    }
+
+    /**
+     * Validate a freshly parsed config
+     *
+     * @throws IllegalArgumentException listing every problem found
+     */
+    public static ConfigSnapshot of(ConfigManager.Config config) {
+        List<String> problems = new ArrayList<>();
+        if (isBlank(config.limboServer)) {
+            problems.add("limboServer must not be empty");
+        }
+        if (isBlank(config.issuerName)) {
+            problems.add("issuerName must not be empty");
+        }
+        if (config.codeWindow < 1 || config.codeWindow > TotpEngine.MAX_WINDOW) {
+            problems.add("codeWindow must be between 1 and " + TotpEngine.MAX_WINDOW);
+        }
+        if (config.codeTimeStep < 1 || config.codeTimeStep > 3600) {
+            problems.add("codeTimeStep must be between 1 and 3600 seconds");
+        }
+        if (config.codeDigits < 6 || config.codeDigits > 8) {
+            problems.add("codeDigits must be between 6 and 8");
+        }
+        TotpEngine.Algorithm algorithm = TotpEngine.Algorithm.fromName(config.codeAlgorithm);
+        if (algorithm == null) {
+            problems.add("codeAlgorithm must be SHA1, SHA256 or SHA512");
+        }
+        if (config.maxAuthAttempts < 1) {
+            problems.add("maxAuthAttempts must be at least 1");
+        }
+        if (config.enrollmentTimeoutSeconds < 30) {
+            problems.add("enrollmentTimeoutSeconds must be at least 30");
+        }
+        if (config.executorThreads < 1) {
+            problems.add("executorThreads must be at least 1");
+        }
+        if (!oneOf(config.executorMode, "virtual", "platform", "caller")) {
+            problems.add("executorMode must be virtual, platform or caller");
+        }
+        if (SecretStores.Format.fromName(config.storageFormat) == null) {
+            problems.add("storageFormat must be json, mapped or h2");
+        }
+        if (!isBlank(config.sqlDatabase)) {
+            try {
+                Paths.get(config.sqlDatabase.trim());
+            } catch (InvalidPathException e) {
+                problems.add("sqlDatabase is not a valid path");
+            }
+        }
+        if (!oneOf(config.sessionSharing, "none", "file")) {
+            problems.add("sessionSharing must be none or file");
+        } else if (config.sessionSharing.trim().equalsIgnoreCase("file")) {
+            if (isBlank(config.serverName)) {
+                problems.add("serverName must not be empty when sessionSharing is file");
+            }
+            if (isBlank(config.sessionSharingDirectory)) {
+                problems.add("sessionSharingDirectory must be set when sessionSharing is file");
+            } else {
+                try {
+                    Paths.get(config.sessionSharingDirectory.trim());
+                } catch (InvalidPathException e) {
+                    problems.add("sessionSharingDirectory is not a valid path");
+                }
+            }
+        }
+        if (config.metricsPort < 0 || config.metricsPort > 65535) {
+            problems.add("metricsPort must be between 0 and 65535");
+        }
+        if (!oneOf(config.encryption, "none", "keyfile", "passphrase")) {
+            problems.add("encryption must be none, keyfile or passphrase");
+        }
+        if (!isBlank(config.encryptionKeyFile)) {
+            try {
+                Paths.get(config.encryptionKeyFile.trim());
+            } catch (InvalidPathException e) {
+                problems.add("encryptionKeyFile is not a valid path");
+            }
+        }
+        if (!isBlank(config.qrImageDirectory)) {
+            try {
+                Paths.get(config.qrImageDirectory.trim());
+            } catch (InvalidPathException e) {
+                problems.add("qrImageDirectory is not a valid path");
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException(String.join("; ", problems));
+        }
+        return new ConfigSnapshot(config, normalizePermissions(config.staffPermissions), algorithm);
+    }
+
+    public static ConfigSnapshot defaults() {
+        return of(new ConfigManager.Config());
+    }
+
+    /**
+     * Whether a backend is the limbo server unauthenticated staff may join;
+     * compares without allocating a lowercased copy of the name
+     */
+    public boolean isLimboServer(String serverName) {
+        return limboServer.equalsIgnoreCase(serverName);
+    }
+
+    private static List<String> normalizePermissions(List<String> staffPermissions) {
+        List<String> normalized = new ArrayList<>();
+        if (staffPermissions != null) {
+            for (String permission : staffPermissions) {
+                if (!isBlank(permission) && !normalized.contains(permission.trim())) {
+                    normalized.add(permission.trim());
+                }
+            }
+        }
+        return normalized.isEmpty() ? new ConfigManager.Config().staffPermissions : normalized;
+    }
+
+    private static boolean oneOf(String value, String... allowed) {
+        if (value == null) {
+            return false;
+        }
+        for (String candidate : allowed) {
+            if (candidate.equalsIgnoreCase(value.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
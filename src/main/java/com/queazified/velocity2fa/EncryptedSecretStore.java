@@ -0,0 +1,94 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Wraps any backend so secrets are written encrypted by {@link SecretCipher}
+ * and handed back to callers in plain Base32.
+ *
+ * Decryption only happens where the backend is read: once per secret at
+ * startup for json, and once per first lookup for lazy stores, after which
+ * {@link TwoFactorManager} keeps the decoded key. Code checks never touch
+ * the cipher. Values that fail to decrypt are treated like malformed
+ * Base32: {@link #get} throws {@link IllegalArgumentException} and
+ * {@link #forEach} logs and skips them.
+ */
+public class EncryptedSecretStore implements SecretStore {
+
+    private final SecretStore delegate;
+    private final SecretCipher cipher;
+    private final Logger logger;
+
+    public EncryptedSecretStore(SecretStore delegate, SecretCipher cipher, Logger logger) {
+        this.delegate = delegate;
+        this.cipher = cipher;
+        this.logger = logger;
+    }
+
+    public SecretStore getDelegate() { return delegate; }
+    public SecretCipher getCipher() { return cipher; }
+
+    @Override
+    public boolean isLazy() {
+        return delegate.isLazy();
+    }
+
+    @Override
+    public String get(UUID uuid) {
+        String value = delegate.get(uuid);
+        return value == null ? null : cipher.decrypt(uuid, value);
+    }
+
+    @Override
+    public boolean contains(UUID uuid) {
+        return delegate.contains(uuid);
+    }
+
+    @Override
+    public void put(UUID uuid, String secret) {
+        delegate.put(uuid, cipher.encrypt(uuid, secret));
+    }
+
+    @Override
+    public void putAll(Map<UUID, String> secrets) {
+        Map<UUID, String> encrypted = new HashMap<>(secrets.size() * 2);
+        for (Map.Entry<UUID, String> entry : secrets.entrySet()) {
+            encrypted.put(entry.getKey(), cipher.encrypt(entry.getKey(), entry.getValue()));
+        }
+        delegate.putAll(encrypted);
+    }
+
+    @Override
+    public boolean remove(UUID uuid) {
+        return delegate.remove(uuid);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<UUID, String> visitor) {
+        delegate.forEach((uuid, value) -> {
+            String secret;
+            try {
+                secret = cipher.decrypt(uuid, value);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Skipping 2FA secret that can't be decrypted: {}", e.getMessage());
+                return;
+            }
+            visitor.accept(uuid, secret);
+        });
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
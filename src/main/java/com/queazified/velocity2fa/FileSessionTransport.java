@@ -0,0 +1,260 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares sessions through a directory every proxy can reach.
+ *
+ * Each proxy appends its own events to {@code <serverName>.sessions}:
+ * <pre>
+ * A &lt;uuid&gt; &lt;expiry&gt; &lt;timestamp&gt;   authenticated until expiry
+ * I &lt;uuid&gt; &lt;timestamp&gt;            invalidated
+ * </pre>
+ * and tails everyone else's file every {@link #POLL_MILLIS}. A proxy
+ * rewrites its file with just the live sessions once it passes
+ * {@link #COMPACT_BYTES}; readers notice the new file and start over.
+ * Invalidation timestamps are remembered so replaying an older
+ * authentication from another file can't bring a session back. They are
+ * written back as {@code I} lines on every rewrite until any session they
+ * could cancel has expired, and a proxy reads its own file's tombstones
+ * on start, so restarting or joining later can't resurrect one either.
+ * The other way round, a tombstone only ends a session that started no
+ * later than it did, and one already applied is not applied again when a
+ * compacted file is read from the top.
+ */
+public class FileSessionTransport implements SessionTransport {
+
+    static final long POLL_MILLIS = 250;
+    static final long COMPACT_BYTES = 1024 * 1024;
+    static final String SUFFIX = ".sessions";
+
+    private final Path directory;
+    private final Path ownFile;
+    private final Logger logger;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Velocity2FA-SessionSync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only touched from the poller thread
+    private final Map<Path, TailState> tails = new HashMap<>();
+    private final Map<UUID, Long> invalidatedAt = new ConcurrentHashMap<>();
+    // When the session this proxy holds for a player was authenticated
+    private final Map<UUID, Long> authenticatedAt = new ConcurrentHashMap<>();
+
+    private SessionStore sessions;
+    private FileChannel channel;
+
+    public FileSessionTransport(Path directory, String serverName, Logger logger) throws IOException {
+        this.directory = directory;
+        this.ownFile = directory.resolve(serverName.replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+        this.logger = logger;
+        Files.createDirectories(directory);
+        this.channel = openOwnFile();
+    }
+
+    @Override
+    public void start(SessionStore sessions) {
+        this.sessions = sessions;
+        // Our own invalidations must be known before anyone's authentications are replayed
+        poller.execute(this::loadOwnTombstones);
+        // The first poll replays every other proxy's file from the start
+        poller.scheduleWithFixedDelay(this::poll, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void publishAuthenticated(UUID uuid, long expiry) {
+        long now = System.currentTimeMillis();
+        authenticatedAt.put(uuid, now);
+        append("A " + uuid + " " + expiry + " " + now + "\n");
+    }
+
+    @Override
+    public void publishInvalidated(UUID uuid) {
+        long now = System.currentTimeMillis();
+        invalidatedAt.merge(uuid, now, Math::max);
+        authenticatedAt.remove(uuid);
+        append("I " + uuid + " " + now + "\n");
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        synchronized (this) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close {}: {}", ownFile.getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void append(String line) {
+        try {
+            channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+            if (channel.size() > COMPACT_BYTES) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to share session change: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite our file with only the sessions that are still live here, plus
+     * every invalidation that could still cancel a session in another file
+     */
+    private void compact() throws IOException {
+        Path temp = ownFile.resolveSibling(ownFile.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        // Invalidations older than the longest session can't matter any more
+        invalidatedAt.values().removeIf(at -> at < now - SessionStore.DEFAULT_TTL_MILLIS);
+        authenticatedAt.values().removeIf(at -> at < now - SessionStore.DEFAULT_TTL_MILLIS);
+        StringBuilder snapshot = new StringBuilder();
+        // Keep the original authentication time rather than now, so an
+        // invalidation we have not polled yet still wins over the rewritten line
+        sessions.forEachLive((uuid, expiry) -> snapshot.append("A ").append(uuid).append(' ').append(expiry)
+            .append(' ').append(authenticatedAt.getOrDefault(uuid,
+                Math.min(now, expiry - SessionStore.DEFAULT_TTL_MILLIS))).append('\n'));
+        invalidatedAt.forEach((uuid, at) ->
+            snapshot.append("I ").append(uuid).append(' ').append(at).append('\n'));
+        Files.write(temp, snapshot.toString().getBytes(StandardCharsets.US_ASCII));
+        channel.close();
+        Files.move(temp, ownFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = openOwnFile();
+    }
+
+    /**
+     * Remember the invalidations this proxy wrote before it restarted; other
+     * proxies' files may still hold the authentications they cancelled
+     */
+    private void loadOwnTombstones() {
+        long oldest = System.currentTimeMillis() - SessionStore.DEFAULT_TTL_MILLIS;
+        try {
+            for (String line : Files.readAllLines(ownFile, StandardCharsets.US_ASCII)) {
+                String[] parts = line.split(" ");
+                if (parts.length != 3 || !parts[0].equals("I")) {
+                    continue;
+                }
+                try {
+                    long at = Long.parseLong(parts[2]);
+                    if (at >= oldest) {
+                        invalidatedAt.merge(UUID.fromString(parts[1]), at, Math::max);
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Skipping malformed shared session entry: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read {}: {}", ownFile.getFileName(), e.getMessage());
+        }
+    }
+
+    private FileChannel openOwnFile() throws IOException {
+        return FileChannel.open(ownFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void poll() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!file.equals(ownFile)) {
+                    tail(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read shared sessions: {}", e.getMessage());
+        }
+    }
+
+    private void tail(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Object identity = attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        TailState state = tails.get(file);
+        if (state == null || !state.identity.equals(identity) || attributes.size() < state.offset) {
+            // New or compacted file: start from the top
+            state = new TailState(identity);
+            tails.put(file, state);
+        }
+        if (attributes.size() == state.offset) {
+            return;
+        }
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(attributes.size() - state.offset, Integer.MAX_VALUE));
+            in.read(buffer, state.offset);
+            String chunk = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+            // Only consume whole lines; a half-written one is picked up next poll
+            int end = chunk.lastIndexOf('\n');
+            if (end < 0) {
+                return;
+            }
+            for (String line : chunk.substring(0, end).split("\n")) {
+                apply(line);
+            }
+            state.offset += end + 1;
+        }
+    }
+
+    private void apply(String line) {
+        String[] parts = line.split(" ");
+        try {
+            if (parts.length == 4 && parts[0].equals("A")) {
+                UUID uuid = UUID.fromString(parts[1]);
+                long expiry = Long.parseLong(parts[2]);
+                long at = Long.parseLong(parts[3]);
+                Long invalidated = invalidatedAt.get(uuid);
+                if (expiry > System.currentTimeMillis() && (invalidated == null || at > invalidated)
+                        && expiry > sessions.getExpiry(uuid)) {
+                    authenticatedAt.put(uuid, at);
+                    sessions.put(uuid, expiry);
+                }
+            } else if (parts.length == 3 && parts[0].equals("I")) {
+                UUID uuid = UUID.fromString(parts[1]);
+                long at = Long.parseLong(parts[2]);
+                Long invalidated = invalidatedAt.get(uuid);
+                if (invalidated != null && at <= invalidated) {
+                    // Already applied, e.g. read again after the other proxy compacted its file
+                    return;
+                }
+                invalidatedAt.merge(uuid, at, Math::max);
+                // A session authenticated after the invalidation was written is not the one it cancelled
+                Long authenticated = authenticatedAt.get(uuid);
+                if (authenticated == null || at >= authenticated) {
+                    authenticatedAt.remove(uuid);
+                    sessions.evict(uuid);
+                }
+            } else if (!line.isEmpty()) {
+                logger.warn("Skipping malformed shared session entry: {}", line);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("Skipping malformed shared session entry: {}", line);
+        }
+    }
+
+    private static final class TailState {
+        final Object identity;
+        long offset;
+
+        TailState(Object identity) {
+            this.identity = identity;
+        }
+    }
+}
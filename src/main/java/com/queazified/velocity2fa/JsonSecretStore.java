@@ -0,0 +1,84 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The default backend: every secret in memory, persisted to secrets.json
+ * through the write-behind {@link SecretJournal}.
+ */
+public class JsonSecretStore implements SecretStore {
+
+    private final Map<UUID, String> secrets = new ConcurrentHashMap<>();
+    private final SecretJournal journal;
+
+    /**
+     * @throws IllegalStateException if the stored secrets can't be read
+     */
+    public JsonSecretStore(Path storagePath, Logger logger) {
+        this.journal = new SecretJournal(storagePath, logger, () -> Collections.unmodifiableMap(secrets));
+        journal.load(secrets);
+    }
+
+    @Override
+    public boolean isLazy() {
+        return false;
+    }
+
+    @Override
+    public String get(UUID uuid) {
+        return secrets.get(uuid);
+    }
+
+    @Override
+    public boolean contains(UUID uuid) {
+        return secrets.containsKey(uuid);
+    }
+
+    // Synchronized so the journal records changes in the order the map saw them
+    @Override
+    public synchronized void put(UUID uuid, String secret) {
+        secrets.put(uuid, secret);
+        journal.recordPut(uuid, secret);
+    }
+
+    /**
+     * The journal's group commit already turns these into one write and one fsync
+     */
+    @Override
+    public synchronized void putAll(Map<UUID, String> batch) {
+        for (Map.Entry<UUID, String> entry : batch.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(UUID uuid) {
+        if (secrets.remove(uuid) == null) {
+            return false;
+        }
+        journal.recordRemove(uuid);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return secrets.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<UUID, String> visitor) {
+        secrets.forEach(visitor);
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+}
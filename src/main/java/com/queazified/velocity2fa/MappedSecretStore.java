@@ -0,0 +1,416 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Binary secret store for very large enrollment counts.
+ *
+ * {@code secrets.bin} is a memory-mapped open-addressing hash table of
+ * fixed-size records, so opening it costs nothing regardless of size and
+ * secrets are only read (and decoded) when a player is actually looked up.
+ *
+ * <pre>
+ * header (64 bytes): magic, version, capacity, count, tombstones
+ * record (152 bytes): state(1) length(1) pad(6) uuid msb(8) lsb(8) secret(128, ASCII)
+ * </pre>
+ *
+ * The secret field holds Base32 or a {@link SecretCipher} envelope. Version
+ * 1 files (88-byte records, 64-character secrets) are upgraded on open.
+ *
+ * Readers use optimistic {@link StampedLock} reads and only fall back to a
+ * read lock when they race with a writer.
+ */
+public class MappedSecretStore implements SecretStore {
+
+    static final int MAGIC = 0x56324641; // "V2FA"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 152;
+    /** Longest Base32 secret accepted anywhere */
+    static final int MAX_SECRET_LENGTH = 64;
+    /** Longest stored value, enough for an encrypted {@link #MAX_SECRET_LENGTH} secret */
+    static final int MAX_VALUE_LENGTH = 128;
+    static final int V1_RECORD_SIZE = 88;
+    static final int INITIAL_CAPACITY = 1024;
+    // 2^23 slots of RECORD_SIZE bytes is about 1.2 GB, so every offset(int) stays below Integer.MAX_VALUE
+    static final int MAX_CAPACITY = 1 << 23;
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte TOMBSTONE = 2;
+
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_CAPACITY = 8;
+    private static final int OFF_COUNT = 12;
+    private static final int OFF_TOMBSTONES = 16;
+
+    private static final int REC_STATE = 0;
+    private static final int REC_LENGTH = 1;
+    private static final int REC_MSB = 8;
+    private static final int REC_LSB = 16;
+    private static final int REC_SECRET = 24;
+
+    private final Path file;
+    private final Logger logger;
+    private final StampedLock lock = new StampedLock();
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int mask;
+
+    public MappedSecretStore(Path file, Logger logger) throws IOException {
+        this.file = file;
+        this.logger = logger;
+        if (Files.exists(file) && Files.size(file) > 0) {
+            if (Files.size(file) < HEADER_SIZE) {
+                // Never recreate over it; that would silently drop every secret
+                throw new IOException("Truncated secrets.bin file: " + file);
+            }
+            map(file);
+            if (buffer.getInt(OFF_MAGIC) != MAGIC) {
+                throw new IOException("Not a Velocity2FA secrets.bin file: " + file);
+            }
+            if (capacity <= 0 || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1) {
+                throw new IOException("Corrupt secrets.bin header, capacity " + capacity + ": " + file);
+            }
+            if (buffer.getInt(OFF_VERSION) == 1) {
+                upgradeFromV1();
+            } else if (buffer.getInt(OFF_VERSION) != VERSION) {
+                throw new IOException("Unsupported secrets.bin version " + buffer.getInt(OFF_VERSION) + ": " + file);
+            }
+        } else {
+            create(file, INITIAL_CAPACITY);
+            map(file);
+        }
+    }
+
+    @Override
+    public boolean isLazy() {
+        return true;
+    }
+
+    @Override
+    public String get(UUID uuid) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                String secret = find(uuid);
+                if (lock.validate(stamp)) {
+                    return secret;
+                }
+            } catch (RuntimeException e) {
+                // Raced with a rehash or a half-written record; retry under the lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return find(uuid);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean contains(UUID uuid) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean found = slotOf(uuid) >= 0;
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // Raced with a rehash; retry under the lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return slotOf(uuid) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void put(UUID uuid, String secret) {
+        put(uuid, secret, true);
+    }
+
+    /**
+     * Write every record unsynced, then msync the whole mapping once
+     */
+    @Override
+    public void putAll(Map<UUID, String> secrets) {
+        for (Map.Entry<UUID, String> entry : secrets.entrySet()) {
+            put(entry.getKey(), entry.getValue(), false);
+        }
+        long stamp = lock.writeLock();
+        try {
+            buffer.force();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param sync msync the touched pages before returning; bulk loads pass
+     *             false and rely on {@link #close()} instead
+     */
+    void put(UUID uuid, String secret, boolean sync) {
+        byte[] bytes = secret.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("Secret longer than " + MAX_VALUE_LENGTH + " characters");
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(uuid);
+            if (slot < 0) {
+                ensureRoomForOneMore();
+                slot = insertionSlot(uuid);
+                if (stateAt(slot) == TOMBSTONE) {
+                    buffer.putInt(OFF_TOMBSTONES, buffer.getInt(OFF_TOMBSTONES) - 1);
+                }
+                buffer.putInt(OFF_COUNT, buffer.getInt(OFF_COUNT) + 1);
+            }
+            writeRecord(buffer, slot, uuid, bytes);
+            if (sync) {
+                buffer.force(offset(slot), RECORD_SIZE);
+                buffer.force(0, HEADER_SIZE);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean remove(UUID uuid) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(uuid);
+            if (slot < 0) {
+                return false;
+            }
+            buffer.put(offset(slot) + REC_STATE, TOMBSTONE);
+            buffer.putInt(OFF_COUNT, buffer.getInt(OFF_COUNT) - 1);
+            buffer.putInt(OFF_TOMBSTONES, buffer.getInt(OFF_TOMBSTONES) + 1);
+            buffer.force(offset(slot), RECORD_SIZE);
+            buffer.force(0, HEADER_SIZE);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return buffer.getInt(OFF_COUNT);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visit every stored secret under a read lock (used for exports)
+     */
+    @Override
+    public void forEach(BiConsumer<UUID, String> visitor) {
+        long stamp = lock.readLock();
+        try {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (stateAt(slot) == USED) {
+                    visitor.accept(uuidAt(slot), secretAt(slot));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            buffer.force();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private String find(UUID uuid) {
+        int slot = slotOf(uuid);
+        return slot < 0 ? null : secretAt(slot);
+    }
+
+    /**
+     * @return the slot holding this UUID, or -1
+     */
+    private int slotOf(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int slot = hash(msb, lsb) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int base = offset(slot);
+            byte state = buffer.get(base + REC_STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == USED && buffer.getLong(base + REC_MSB) == msb && buffer.getLong(base + REC_LSB) == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insertionSlot(UUID uuid) {
+        int slot = hash(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) & mask;
+        while (stateAt(slot) == USED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void ensureRoomForOneMore() {
+        int used = buffer.getInt(OFF_COUNT) + buffer.getInt(OFF_TOMBSTONES) + 1;
+        if (used * 10L < capacity * 7L) {
+            return;
+        }
+        // Grow only if live entries need it; otherwise just sweep the tombstones
+        int newCapacity = (buffer.getInt(OFF_COUNT) + 1) * 10L >= capacity * 5L ? capacity * 2 : capacity;
+        if (newCapacity > MAX_CAPACITY) {
+            throw new IllegalStateException("secrets.bin is full (" + MAX_CAPACITY + " slots)");
+        }
+        rehash(newCapacity);
+    }
+
+    private void rehash(int newCapacity) {
+        try {
+            rewrite(newCapacity, RECORD_SIZE);
+            logger.debug("Rehashed secrets.bin to {} slots", newCapacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to grow secrets.bin: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Rewrite a version 1 file with the wider records, before anyone reads it
+     */
+    private void upgradeFromV1() throws IOException {
+        rewrite(capacity, V1_RECORD_SIZE);
+        logger.info("Upgraded secrets.bin to format version {}", VERSION);
+    }
+
+    /**
+     * Copy every live record into a fresh file of the current version and
+     * swap it in atomically; tombstones are dropped along the way
+     *
+     * @param sourceRecordSize record size of the currently mapped file
+     */
+    private void rewrite(int newCapacity, int sourceRecordSize) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        create(temp, newCapacity);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int newMask = newCapacity - 1;
+            int count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                int base = HEADER_SIZE + slot * sourceRecordSize;
+                if (buffer.get(base + REC_STATE) != USED) {
+                    continue;
+                }
+                long msb = buffer.getLong(base + REC_MSB);
+                long lsb = buffer.getLong(base + REC_LSB);
+                int newSlot = hash(msb, lsb) & newMask;
+                while (target.get(offset(newSlot) + REC_STATE) == USED) {
+                    newSlot = (newSlot + 1) & newMask;
+                }
+                byte[] secret = new byte[buffer.get(base + REC_LENGTH) & 0xFF];
+                buffer.get(base + REC_SECRET, secret);
+                writeRecord(target, newSlot, new UUID(msb, lsb), secret);
+                count++;
+            }
+            target.putInt(OFF_COUNT, count);
+            target.force();
+        }
+        buffer.force();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(file);
+    }
+
+    private void map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        capacity = buffer.getInt(OFF_CAPACITY);
+        mask = capacity - 1;
+    }
+
+    private static void create(Path path, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            header.putInt(OFF_MAGIC, MAGIC);
+            header.putInt(OFF_VERSION, VERSION);
+            header.putInt(OFF_CAPACITY, capacity);
+            header.putInt(OFF_COUNT, 0);
+            header.putInt(OFF_TOMBSTONES, 0);
+            header.force();
+        }
+    }
+
+    private static void writeRecord(MappedByteBuffer target, int slot, UUID uuid, byte[] secret) {
+        int base = offset(slot);
+        target.putLong(base + REC_MSB, uuid.getMostSignificantBits());
+        target.putLong(base + REC_LSB, uuid.getLeastSignificantBits());
+        target.put(base + REC_SECRET, secret);
+        target.put(base + REC_LENGTH, (byte) secret.length);
+        // State last, so a torn write never exposes a half-written record
+        target.put(base + REC_STATE, USED);
+    }
+
+    private byte stateAt(int slot) {
+        return buffer.get(offset(slot) + REC_STATE);
+    }
+
+    private UUID uuidAt(int slot) {
+        int base = offset(slot);
+        return new UUID(buffer.getLong(base + REC_MSB), buffer.getLong(base + REC_LSB));
+    }
+
+    private String secretAt(int slot) {
+        int base = offset(slot);
+        int length = buffer.get(base + REC_LENGTH) & 0xFF;
+        byte[] bytes = new byte[length];
+        buffer.get(base + REC_SECRET, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
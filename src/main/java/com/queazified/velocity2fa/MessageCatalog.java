@@ -0,0 +1,544 @@
+package com.queazified.velocity2fa;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.JoinConfiguration;
+import net.kyori.adventure.text.TextReplacementConfig;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Player-facing messages from {@code Config.Messages}, parsed into
+ * components once per config load.
+ *
+ * Strings with legacy {@code §} codes go through the legacy serializer.
+ * Strings with tags and no {@code §} are parsed as MiniMessage when the
+ * proxy ships it; velocity-api 3.1.1 doesn't, so it is looked up
+ * reflectively and plain legacy parsing is used otherwise. Messages that
+ * are always sent together are joined into one component so they go out as
+ * one packet. Placeholders such as {@code {secret}} are replaced in the
+ * parsed component; the string is never parsed again.
+ */
+public final class MessageCatalog {
+
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacySection();
+    private static final Object MINI_MESSAGE;
+    private static final Method MINI_MESSAGE_DESERIALIZE;
+
+    static {
+        Object miniMessage = null;
+        Method deserialize = null;
+        try {
+            Class<?> type = Class.forName("net.kyori.adventure.text.minimessage.MiniMessage");
+            miniMessage = type.getMethod("miniMessage").invoke(null);
+            deserialize = type.getMethod("deserialize", String.class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not on this proxy; legacy codes only
+        }
+        MINI_MESSAGE = miniMessage;
+        MINI_MESSAGE_DESERIALIZE = deserialize;
+    }
+
+    /** authRequired, enterCode and cannotJoinServers */
+    public final Component loginPrompt;
+    public final Component authSuccess;
+    public final Component authFailed;
+    public final Component noPermission;
+    public final Component alreadyEnabled;
+    public final Component not2FA;
+    public final Component tooFast;
+    public final Component tooManyFailures;
+    /** mustAuthenticate and limboOnly */
+    public final Component connectDenied;
+    public final Component setupFailed;
+    public final Component setupComplete;
+    public final Component recoveryCodesFailed;
+    public final Component recoveryVerifyFirst;
+    public final Component playersOnly;
+    public final Component verifyUsage;
+    public final Component notEnabled;
+    public final Component help;
+    public final Component disabledByAdmin;
+    public final Component forceDisabledByAdmin;
+    public final Component adminNoPermission;
+    public final Component adminHelp;
+    public final Component usageDisable;
+    public final Component usageForceDisable;
+    public final Component usageStatus;
+    public final Component usageList;
+    public final Component usageMigrate;
+    public final Component usageExport;
+    public final Component usageImport;
+    public final Component tooManyCodeAttempts;
+    public final Component reloadSuccess;
+    public final Component reloadUnchanged;
+    public final Component rekeyEncryptionOff;
+    public final Component rekeyStarted;
+    public final Component transferConsoleOnly;
+    public final Component transferOutsideFolder;
+    private final Component setup;
+    private final Component lockedOut;
+    private final Component recoveryCodes;
+    private final Component recoveryCodeUsed;
+    private final Component disableInstructions;
+    private final Component statusTitle;
+    private final Component playerStatusTitle;
+    private final Component statusEnabled;
+    private final Component statusNotEnabled;
+    private final Component statusStaff;
+    private final Component statusNotStaff;
+    private final Component statusStaffUnknown;
+    private final Component statusSetupPending;
+    private final Component statusAuthenticated;
+    private final Component statusNotAuthenticated;
+    private final Component statusPending;
+    private final Component statusNotPending;
+    private final Component statusRecoveryCodes;
+    private final Component statusNoRecoveryCodes;
+    private final Component statusSessionExpires;
+    private final Component unknownPlayer;
+    private final Component playerNotEnabled;
+    private final Component disableInvalidCode;
+    private final Component disableSuccess;
+    private final Component disableFailed;
+    private final Component forceDisableSuccess;
+    private final Component forceDisableFailed;
+    private final Component listTitle;
+    private final Component listTotals;
+    private final Component listTotalsFiltered;
+    private final Component listAuthenticated;
+    private final Component listPending;
+    private final Component listUnauthenticated;
+    private final Component listNextPage;
+    private final Component stats;
+    private final Component metricsTitle;
+    private final Component metricsLine;
+    private final Component reloadFailed;
+    private final Component migrateUnknownFormat;
+    private final Component migrateStarted;
+    private final Component migrateComplete;
+    private final Component migrateFailed;
+    private final Component rekeyProgress;
+    private final Component rekeyComplete;
+    private final Component rekeyFailed;
+    private final Component exportStarted;
+    private final Component exportProgress;
+    private final Component exportComplete;
+    private final Component exportFailed;
+    private final Component importUnknownPolicy;
+    private final Component importNoFile;
+    private final Component importStarted;
+    private final Component importProgress;
+    private final Component importComplete;
+    private final Component importProblem;
+    private final Component importFailed;
+
+    private MessageCatalog(ConfigManager.Config.Messages messages) {
+        this.loginPrompt = lines(messages.authRequired, messages.enterCode, messages.cannotJoinServers);
+        this.authSuccess = parse(messages.authSuccess);
+        this.authFailed = parse(messages.authFailed);
+        this.noPermission = parse(messages.noPermission);
+        this.alreadyEnabled = parse(messages.alreadyEnabled);
+        this.not2FA = parse(messages.not2FA);
+        this.tooFast = parse(messages.tooFast);
+        this.tooManyFailures = parse(messages.tooManyFailures);
+        this.connectDenied = lines(messages.mustAuthenticate, messages.limboOnly);
+        this.setupFailed = parse(messages.setupFailed);
+        this.setupComplete = parse(messages.setupComplete);
+        this.recoveryCodesFailed = parse(messages.recoveryCodesFailed);
+        this.recoveryVerifyFirst = parse(messages.recoveryVerifyFirst);
+        this.setup = lines(messages.setupTitle, messages.setupInstructions, messages.scanQR,
+            messages.secretKey, messages.completeSetup);
+        this.lockedOut = parse(messages.lockedOut);
+        this.recoveryCodes = parse(messages.recoveryCodes);
+        this.recoveryCodeUsed = parse(messages.recoveryCodeUsed);
+        this.playersOnly = parse(messages.playersOnly);
+        this.verifyUsage = parse(messages.verifyUsage);
+        this.notEnabled = parse(messages.notEnabled);
+        this.help = lines(messages.help);
+        this.disableInstructions = lines(messages.disableInstructions, messages.disableCommand);
+        this.statusTitle = parse(messages.statusTitle);
+        this.playerStatusTitle = parse(messages.playerStatusTitle);
+        this.statusEnabled = parse(messages.statusEnabled);
+        this.statusNotEnabled = parse(messages.statusNotEnabled);
+        this.statusStaff = parse(messages.statusStaff);
+        this.statusNotStaff = parse(messages.statusNotStaff);
+        this.statusStaffUnknown = parse(messages.statusStaffUnknown);
+        this.statusSetupPending = parse(messages.statusSetupPending);
+        this.statusAuthenticated = parse(messages.statusAuthenticated);
+        this.statusNotAuthenticated = parse(messages.statusNotAuthenticated);
+        this.statusPending = parse(messages.statusPending);
+        this.statusNotPending = parse(messages.statusNotPending);
+        this.statusRecoveryCodes = parse(messages.statusRecoveryCodes);
+        this.statusNoRecoveryCodes = parse(messages.statusNoRecoveryCodes);
+        this.statusSessionExpires = parse(messages.statusSessionExpires);
+        this.disabledByAdmin = parse(messages.disabledByAdmin);
+        this.forceDisabledByAdmin = parse(messages.forceDisabledByAdmin);
+        this.adminNoPermission = parse(messages.adminNoPermission);
+        this.adminHelp = lines(messages.adminHelp);
+        this.usageDisable = parse(messages.usageDisable);
+        this.usageForceDisable = parse(messages.usageForceDisable);
+        this.usageStatus = parse(messages.usageStatus);
+        this.usageList = parse(messages.usageList);
+        this.usageMigrate = parse(messages.usageMigrate);
+        this.usageExport = parse(messages.usageExport);
+        this.usageImport = parse(messages.usageImport);
+        this.tooManyCodeAttempts = parse(messages.tooManyCodeAttempts);
+        this.reloadSuccess = parse(messages.reloadSuccess);
+        this.reloadUnchanged = parse(messages.reloadUnchanged);
+        this.rekeyEncryptionOff = parse(messages.rekeyEncryptionOff);
+        this.rekeyStarted = parse(messages.rekeyStarted);
+        this.transferConsoleOnly = parse(messages.transferConsoleOnly);
+        this.transferOutsideFolder = parse(messages.transferOutsideFolder);
+        this.unknownPlayer = parse(messages.unknownPlayer);
+        this.playerNotEnabled = parse(messages.playerNotEnabled);
+        this.disableInvalidCode = parse(messages.disableInvalidCode);
+        this.disableSuccess = parse(messages.disableSuccess);
+        this.disableFailed = parse(messages.disableFailed);
+        this.forceDisableSuccess = parse(messages.forceDisableSuccess);
+        this.forceDisableFailed = parse(messages.forceDisableFailed);
+        this.listTitle = parse(messages.listTitle);
+        this.listTotals = parse(messages.listTotals);
+        this.listTotalsFiltered = parse(messages.listTotalsFiltered);
+        this.listAuthenticated = parse(messages.listAuthenticated);
+        this.listPending = parse(messages.listPending);
+        this.listUnauthenticated = parse(messages.listUnauthenticated);
+        this.listNextPage = parse(messages.listNextPage);
+        this.stats = lines(messages.stats);
+        this.metricsTitle = parse(messages.metricsTitle);
+        this.metricsLine = parse(messages.metricsLine);
+        this.reloadFailed = parse(messages.reloadFailed);
+        this.migrateUnknownFormat = parse(messages.migrateUnknownFormat);
+        this.migrateStarted = parse(messages.migrateStarted);
+        this.migrateComplete = lines(messages.migrateComplete);
+        this.migrateFailed = parse(messages.migrateFailed);
+        this.rekeyProgress = parse(messages.rekeyProgress);
+        this.rekeyComplete = parse(messages.rekeyComplete);
+        this.rekeyFailed = parse(messages.rekeyFailed);
+        this.exportStarted = parse(messages.exportStarted);
+        this.exportProgress = parse(messages.exportProgress);
+        this.exportComplete = lines(messages.exportComplete);
+        this.exportFailed = parse(messages.exportFailed);
+        this.importUnknownPolicy = parse(messages.importUnknownPolicy);
+        this.importNoFile = parse(messages.importNoFile);
+        this.importStarted = parse(messages.importStarted);
+        this.importProgress = parse(messages.importProgress);
+        this.importComplete = parse(messages.importComplete);
+        this.importProblem = parse(messages.importProblem);
+        this.importFailed = parse(messages.importFailed);
+    }
+
+    public static MessageCatalog of(ConfigManager.Config.Messages messages) {
+        return new MessageCatalog(messages != null ? messages : new ConfigManager.Config.Messages());
+    }
+
+    /**
+     * The whole setup text with {@code {secret}} filled in
+     */
+    public Component setup(String secret) {
+        return replace(setup, "{secret}", secret);
+    }
+
+    /**
+     * Lockout notice with {@code {seconds}} filled in
+     */
+    public Component lockedOut(long seconds) {
+        return replace(lockedOut, "{seconds}", Long.toString(seconds));
+    }
+
+    /**
+     * Recovery code header followed by one code per line
+     */
+    public Component recoveryCodes(List<String> codes) {
+        List<Component> lines = new ArrayList<>(codes.size() + 1);
+        lines.add(recoveryCodes);
+        for (String code : codes) {
+            lines.add(Component.text(code, NamedTextColor.AQUA));
+        }
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    /**
+     * Recovery code notice with {@code {remaining}} filled in
+     */
+    public Component recoveryCodeUsed(int remaining) {
+        return replace(recoveryCodeUsed, "{remaining}", Integer.toString(remaining));
+    }
+
+    /**
+     * How to turn 2FA off, with {@code {player}} filled in
+     */
+    public Component disableInstructions(String player) {
+        return replace(disableInstructions, "{player}", player);
+    }
+
+    /**
+     * A player's own {@code /2fa status}, one line per fact
+     *
+     * @param minutesLeft session time left, shown only while authenticated
+     */
+    public Component status(boolean has2FA, boolean staff, boolean setupPending, boolean authenticated,
+                            boolean pending, int recoveryLeft, long minutesLeft) {
+        List<Component> lines = new ArrayList<>(8);
+        lines.add(statusTitle);
+        lines.add(has2FA ? statusEnabled : statusNotEnabled);
+        lines.add(staff ? statusStaff : statusNotStaff);
+        if (setupPending) {
+            lines.add(statusSetupPending);
+        }
+        if (has2FA) {
+            lines.add(authenticated ? statusAuthenticated : statusNotAuthenticated);
+            lines.add(pending ? statusPending : statusNotPending);
+            lines.add(recoveryLeft > 0
+                ? replace(statusRecoveryCodes, "{count}", Integer.toString(recoveryLeft))
+                : statusNoRecoveryCodes);
+            if (authenticated) {
+                lines.add(replace(statusSessionExpires, "{minutes}", Long.toString(minutesLeft)));
+            }
+        }
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    /**
+     * {@code /2fa-admin status} for another player
+     *
+     * @param staff null when the player is offline and permissions can't be checked
+     */
+    public Component playerStatus(String player, boolean has2FA, Boolean staff, boolean authenticated,
+                                  boolean pending) {
+        List<Component> lines = new ArrayList<>(5);
+        lines.add(replace(playerStatusTitle, "{player}", player));
+        lines.add(has2FA ? statusEnabled : statusNotEnabled);
+        lines.add(staff == null ? statusStaffUnknown : staff ? statusStaff : statusNotStaff);
+        if (has2FA) {
+            lines.add(authenticated ? statusAuthenticated : statusNotAuthenticated);
+            lines.add(pending ? statusPending : statusNotPending);
+        }
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    public Component unknownPlayer(String player) {
+        return replace(unknownPlayer, "{player}", player);
+    }
+
+    public Component playerNotEnabled(String player) {
+        return replace(playerNotEnabled, "{player}", player);
+    }
+
+    public Component disableInvalidCode(String player) {
+        return replace(disableInvalidCode, "{player}", player);
+    }
+
+    public Component disableSuccess(String player) {
+        return replace(disableSuccess, "{player}", player);
+    }
+
+    public Component disableFailed(String player) {
+        return replace(disableFailed, "{player}", player);
+    }
+
+    public Component forceDisableSuccess(String player) {
+        return replace(forceDisableSuccess, "{player}", player);
+    }
+
+    public Component forceDisableFailed(String player) {
+        return replace(forceDisableFailed, "{player}", player);
+    }
+
+    /**
+     * Title and totals of a {@code /2fa-admin list} page
+     *
+     * @param filter the filter's name, or null when the list isn't filtered
+     */
+    public Component listHeader(int page, int pages, int total, int online, String filter, int matched) {
+        Component totals = filter == null
+            ? fill(listTotals, "{total}", Integer.toString(total), "{online}", Integer.toString(online))
+            : fill(listTotalsFiltered, "{total}", Integer.toString(total), "{online}", Integer.toString(online),
+                "{matched}", Integer.toString(matched), "{filter}", filter);
+        return Component.join(JoinConfiguration.newlines(),
+            fill(listTitle, "{page}", Integer.toString(page), "{pages}", Integer.toString(pages)), totals);
+    }
+
+    /**
+     * One player on a {@code /2fa-admin list} page
+     */
+    public Component listEntry(String player, boolean authenticated, boolean pending) {
+        return replace(authenticated ? listAuthenticated : pending ? listPending : listUnauthenticated,
+            "{player}", player);
+    }
+
+    public Component listNextPage(String filter, int page) {
+        return fill(listNextPage, "{filter}", filter, "{page}", Integer.toString(page));
+    }
+
+    /**
+     * {@code /2fa-admin stats}, from the counters the components keep
+     */
+    public Component stats(int enabled, int authenticated, int pending, int staff,
+                           StaffPermissionResolver permissions, AuthThrottle throttle, PluginExecutor executor) {
+        return fill(stats,
+            "{enabled}", Integer.toString(enabled),
+            "{authenticated}", Integer.toString(authenticated),
+            "{pending}", Integer.toString(pending),
+            "{staff}", Integer.toString(staff),
+            "{cacheHits}", Long.toString(permissions.getHits()),
+            "{cacheMisses}", Long.toString(permissions.getMisses()),
+            "{throttled}", Long.toString(throttle.getThrottledAttempts()),
+            "{lockedOut}", Long.toString(throttle.getLockedOutAttempts()),
+            "{lockouts}", Long.toString(throttle.getLockouts()),
+            "{executor}", executor.getMode().name().toLowerCase(Locale.ROOT),
+            "{queued}", Integer.toString(executor.getQueueDepth()),
+            "{completed}", Long.toString(executor.getCompletedTasks()),
+            "{averageMicros}", Long.toString(executor.getAverageLatencyMicros()),
+            "{maxMicros}", Long.toString(executor.getMaxLatencyMicros()));
+    }
+
+    /**
+     * Metrics title followed by one line per metric
+     */
+    public Component metrics(List<String> summary) {
+        List<Component> lines = new ArrayList<>(summary.size() + 1);
+        lines.add(metricsTitle);
+        for (String line : summary) {
+            lines.add(replace(metricsLine, "{line}", line));
+        }
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    public Component reloadFailed(String error) {
+        return replace(reloadFailed, "{error}", String.valueOf(error));
+    }
+
+    public Component migrateUnknownFormat(String format) {
+        return replace(migrateUnknownFormat, "{format}", format);
+    }
+
+    public Component migrateStarted(String format) {
+        return replace(migrateStarted, "{format}", format);
+    }
+
+    public Component migrateComplete(int count, String format) {
+        return fill(migrateComplete, "{count}", Integer.toString(count), "{format}", format);
+    }
+
+    public Component migrateFailed(String error) {
+        return replace(migrateFailed, "{error}", String.valueOf(error));
+    }
+
+    public Component rekeyProgress(long count) {
+        return replace(rekeyProgress, "{count}", Long.toString(count));
+    }
+
+    public Component rekeyComplete(long count) {
+        return replace(rekeyComplete, "{count}", Long.toString(count));
+    }
+
+    public Component rekeyFailed(String error) {
+        return replace(rekeyFailed, "{error}", String.valueOf(error));
+    }
+
+    public Component exportStarted(String file) {
+        return replace(exportStarted, "{file}", file);
+    }
+
+    public Component exportProgress(long count) {
+        return replace(exportProgress, "{count}", Long.toString(count));
+    }
+
+    public Component exportComplete(long count, String file) {
+        return fill(exportComplete, "{count}", Long.toString(count), "{file}", file);
+    }
+
+    public Component exportFailed(String error) {
+        return replace(exportFailed, "{error}", String.valueOf(error));
+    }
+
+    public Component importUnknownPolicy(String policy) {
+        return replace(importUnknownPolicy, "{policy}", policy);
+    }
+
+    public Component importNoFile(String file) {
+        return replace(importNoFile, "{file}", file);
+    }
+
+    public Component importStarted(String file) {
+        return replace(importStarted, "{file}", file);
+    }
+
+    public Component importProgress(long count) {
+        return replace(importProgress, "{count}", Long.toString(count));
+    }
+
+    /**
+     * Import totals followed by one line per invalid entry
+     */
+    public Component importComplete(long read, int added, int replaced, int skipped, long invalid,
+                                    List<String> problems) {
+        List<Component> lines = new ArrayList<>(problems.size() + 1);
+        lines.add(fill(importComplete, "{read}", Long.toString(read), "{added}", Integer.toString(added),
+            "{replaced}", Integer.toString(replaced), "{skipped}", Integer.toString(skipped),
+            "{invalid}", Long.toString(invalid)));
+        for (String problem : problems) {
+            lines.add(replace(importProblem, "{problem}", problem));
+        }
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    public Component importFailed(String error) {
+        return replace(importFailed, "{error}", String.valueOf(error));
+    }
+
+    static Component parse(String message) {
+        if (message == null || message.isEmpty()) {
+            return Component.empty();
+        }
+        if (MINI_MESSAGE != null && message.indexOf(LegacyComponentSerializer.SECTION_CHAR) < 0
+                && message.indexOf('<') >= 0) {
+            try {
+                return (Component) MINI_MESSAGE_DESERIALIZE.invoke(MINI_MESSAGE, message);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Not valid MiniMessage after all; show it as written
+            }
+        }
+        return LEGACY.deserialize(message);
+    }
+
+    /**
+     * One component with a line per message; empty messages are left out
+     */
+    private static Component lines(String... messages) {
+        List<Component> parsed = new ArrayList<>(messages.length);
+        for (String message : messages) {
+            if (message != null && !message.isEmpty()) {
+                parsed.add(parse(message));
+            }
+        }
+        return Component.join(JoinConfiguration.newlines(), parsed);
+    }
+
+    private static Component lines(List<String> messages) {
+        return messages != null ? lines(messages.toArray(new String[0])) : Component.empty();
+    }
+
+    /**
+     * Fill several placeholders, given as placeholder, value pairs
+     */
+    private static Component fill(Component template, String... placeholdersAndValues) {
+        Component filled = template;
+        for (int i = 0; i + 1 < placeholdersAndValues.length; i += 2) {
+            filled = replace(filled, placeholdersAndValues[i], placeholdersAndValues[i + 1]);
+        }
+        return filled;
+    }
+
+    private static Component replace(Component template, String placeholder, String value) {
+        return template.replaceText(TextReplacementConfig.builder()
+            .matchLiteral(placeholder)
+            .replacement(value)
+            .build());
+    }
+}
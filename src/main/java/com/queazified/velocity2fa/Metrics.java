@@ -0,0 +1,139 @@
+package com.queazified.velocity2fa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms for the authentication hot paths.
+ *
+ * Hot paths record straight into the public fields; counts other
+ * components already keep (throttle counters, session cache size) are
+ * registered once as suppliers and only read when a report is rendered.
+ * Everything is exported in the Prometheus text format by
+ * {@link MetricsServer} and summarised by {@code /2fa-admin metrics}.
+ */
+public final class Metrics {
+
+    static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    public final LatencyHistogram verifyCode = new LatencyHistogram();
+    public final LatencyHistogram saveSecrets = new LatencyHistogram();
+    public final LatencyHistogram loadSecrets = new LatencyHistogram();
+    public final LatencyHistogram serverPreConnect = new LatencyHistogram();
+    public final LatencyHistogram postLogin = new LatencyHistogram();
+
+    public final LongAdder verifySuccesses = new LongAdder();
+    public final LongAdder verifyFailures = new LongAdder();
+    public final LongAdder deniedConnects = new LongAdder();
+    public final LongAdder recoveryCodesUsed = new LongAdder();
+
+    private final List<Timer> timers = List.of(
+        new Timer("verify_code", "TOTP code verification", verifyCode),
+        new Timer("save_secrets", "Writing a secret to storage", saveSecrets),
+        new Timer("load_secrets", "Reading secrets from storage", loadSecrets),
+        new Timer("server_pre_connect", "Connect gate in ServerPreConnectEvent", serverPreConnect),
+        new Timer("post_login", "PostLoginEvent handling", postLogin));
+    private final List<Reading> readings = new CopyOnWriteArrayList<>();
+
+    public Metrics() {
+        counter("verifications_success_total", "Accepted 2FA codes", verifySuccesses::sum);
+        counter("verifications_failure_total", "Rejected 2FA codes", verifyFailures::sum);
+        counter("denied_connects_total", "Server connects denied for missing 2FA", deniedConnects::sum);
+        counter("recovery_codes_used_total", "Recovery codes redeemed", recoveryCodesUsed::sum);
+    }
+
+    /**
+     * Export a monotonically increasing value kept elsewhere
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        readings.add(new Reading(name, help, "counter", value));
+    }
+
+    /**
+     * Export a value that can go up and down
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        readings.add(new Reading(name, help, "gauge", value));
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Timer timer : timers) {
+            String name = "velocity2fa_" + timer.name + "_seconds";
+            LatencyHistogram.Snapshot snapshot = timer.histogram.snapshot();
+            out.append("# HELP ").append(name).append(' ').append(timer.help).append('\n');
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.valueAt(quantile))).append('\n');
+            }
+            out.append(name).append("_sum ").append(seconds(snapshot.totalNanos)).append('\n');
+            out.append(name).append("_count ").append(snapshot.count).append('\n');
+        }
+        for (Reading reading : readings) {
+            String name = "velocity2fa_" + reading.name;
+            out.append("# HELP ").append(name).append(' ').append(reading.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(reading.type).append('\n');
+            out.append(name).append(' ').append(reading.value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * One line per metric for chat: latencies as count, p50, p99 and max
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Timer timer : timers) {
+            LatencyHistogram.Snapshot snapshot = timer.histogram.snapshot();
+            lines.add(timer.name + ": " + snapshot.count + " calls, p50 " + micros(snapshot.valueAt(0.5))
+                + "µs, p99 " + micros(snapshot.valueAt(0.99)) + "µs, max " + micros(snapshot.maxNanos) + "µs");
+        }
+        for (Reading reading : readings) {
+            lines.add(reading.name + ": " + reading.value.getAsLong());
+        }
+        return lines;
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static final class Timer {
+        final String name;
+        final String help;
+        final LatencyHistogram histogram;
+
+        Timer(String name, String help, LatencyHistogram histogram) {
+            this.name = name;
+            this.help = help;
+            this.histogram = histogram;
+        }
+    }
+
+    private static final class Reading {
+        final String name;
+        final String help;
+        final String type;
+        final LongSupplier value;
+
+        Reading(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.queazified.velocity2fa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * Who is online right now, kept up to date from login, logout and
+ * enrollment events so {@code /2fa-admin list} and {@code stats} never
+ * have to walk every player or re-check permissions.
+ *
+ * Staff status is the answer at login, updated when the plugin re-checks
+ * it after a permission change. Online 2FA users are also kept
+ * sorted by name, so a page of the list is a walk over just those players.
+ * Updates are serialized; reads are lock-free.
+ */
+public class OnlineRoster {
+
+    private final Map<UUID, Member> online = new ConcurrentHashMap<>();
+    private final NavigableMap<String, Member> twoFactorByName = new ConcurrentSkipListMap<>();
+    private volatile int onlineStaff;
+
+    public synchronized void login(UUID uuid, String username, boolean staff, boolean twoFactor) {
+        logout(uuid);
+        Member member = new Member(uuid, username, staff);
+        online.put(uuid, member);
+        if (staff) {
+            onlineStaff++;
+        }
+        if (twoFactor) {
+            twoFactorByName.put(member.key, member);
+        }
+    }
+
+    public synchronized void logout(UUID uuid) {
+        Member member = online.remove(uuid);
+        if (member == null) {
+            return;
+        }
+        if (member.staff) {
+            onlineStaff--;
+        }
+        twoFactorByName.remove(member.key);
+    }
+
+    /**
+     * Track an enrollment or removal; ignored for offline players
+     */
+    public synchronized void setTwoFactor(UUID uuid, boolean twoFactor) {
+        Member member = online.get(uuid);
+        if (member == null) {
+            return;
+        }
+        if (twoFactor) {
+            twoFactorByName.put(member.key, member);
+        } else {
+            twoFactorByName.remove(member.key);
+        }
+    }
+
+    /**
+     * Track a change of staff status; ignored for offline players
+     */
+    public synchronized void setStaff(UUID uuid, boolean staff) {
+        Member member = online.get(uuid);
+        if (member == null || member.staff == staff) {
+            return;
+        }
+        login(uuid, member.username, staff, twoFactorByName.get(member.key) == member);
+    }
+
+    public int getOnlineStaff() { return onlineStaff; }
+    public int getOnlineTwoFactor() { return twoFactorByName.size(); }
+
+    /**
+     * One page of the online 2FA users that pass the filter, by name
+     *
+     * @param page 1-based; clamped to the last page
+     */
+    public Page page(Predicate<UUID> filter, int page, int pageSize) {
+        List<Member> entries = new ArrayList<>(pageSize);
+        int matched = 0;
+        int requested = Math.max(1, page);
+        for (Member member : twoFactorByName.values()) {
+            if (!filter.test(member.uuid)) {
+                continue;
+            }
+            matched++;
+            // Keep the most recent full page in case the requested one is past the end
+            if ((matched - 1) / pageSize + 1 <= requested) {
+                if ((matched - 1) % pageSize == 0) {
+                    entries.clear();
+                }
+                entries.add(member);
+            }
+        }
+        int pages = Math.max(1, (matched + pageSize - 1) / pageSize);
+        return new Page(entries, Math.min(requested, pages), pages, matched);
+    }
+
+    public static final class Member {
+        public final UUID uuid;
+        public final String username;
+        final boolean staff;
+        final String key;
+
+        Member(UUID uuid, String username, boolean staff) {
+            this.uuid = uuid;
+            this.username = username;
+            this.staff = staff;
+            this.key = username.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static final class Page {
+        public final List<Member> entries;
+        public final int page;
+        public final int pages;
+        public final int matched;
+
+        Page(List<Member> entries, int page, int pages, int matched) {
+            this.entries = entries;
+            this.page = page;
+            this.pages = pages;
+            this.matched = matched;
+        }
+    }
+}
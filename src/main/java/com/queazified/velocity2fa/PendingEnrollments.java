@@ -0,0 +1,89 @@
+package com.queazified.velocity2fa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secrets handed out by {@code /2fa setup} that have not been confirmed
+ * with a code yet.
+ *
+ * They live only in memory: nothing is written until
+ * {@link TwoFactorManager} promotes one after the first valid code, so an
+ * abandoned setup leaves no trace and never turns 2FA on. Running setup
+ * again while one is pending returns the same secret. Entries past their
+ * TTL are ignored on lookup and removed in bulk by {@link #sweep}.
+ */
+public class PendingEnrollments {
+
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * The live pending secret for the player, or a new one
+     */
+    public Pending begin(UUID uuid, long now) {
+        return pending.compute(uuid, (key, existing) ->
+            existing != null && !existing.isExpired(now) ? existing : new Pending(TotpSecret.generate(), now + ttlMillis));
+    }
+
+    /**
+     * @return the live pending secret, or null
+     */
+    public Pending get(UUID uuid, long now) {
+        Pending entry = pending.get(uuid);
+        return entry == null || entry.isExpired(now) ? null : entry;
+    }
+
+    /**
+     * Remove this exact entry; false if it was replaced or already gone
+     */
+    public boolean remove(UUID uuid, Pending entry) {
+        return pending.remove(uuid, entry);
+    }
+
+    public void remove(UUID uuid) {
+        pending.remove(uuid);
+    }
+
+    /**
+     * Drop every expired entry
+     *
+     * @return the players whose pending secret expired
+     */
+    public List<UUID> sweep(long now) {
+        List<UUID> expired = new ArrayList<>();
+        pending.forEach((uuid, entry) -> {
+            if (entry.isExpired(now) && pending.remove(uuid, entry)) {
+                expired.add(uuid);
+            }
+        });
+        return expired;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public static final class Pending {
+        public final TotpSecret secret;
+        public final long expiresAt;
+
+        Pending(TotpSecret secret, long expiresAt) {
+            this.secret = secret;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+}
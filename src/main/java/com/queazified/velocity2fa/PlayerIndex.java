@@ -0,0 +1,184 @@
+package com.queazified.velocity2fa;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Last known username for every staff member or 2FA user who has logged in,
+ * persisted to players.json so admin commands can target offline players.
+ *
+ * Lookups by name are case-insensitive and O(1); a sorted copy of the
+ * lowercase names serves prefix searches for tab completion. Logins only
+ * touch the maps when a name is new or changed, and the file is rewritten
+ * in the background by {@link #saveIfDirty()}.
+ */
+public class PlayerIndex {
+
+    private final Path indexFile;
+    private final Logger logger;
+    private final Map<UUID, String> namesByUuid = new ConcurrentHashMap<>();
+    private final Map<String, UUID> uuidsByName = new ConcurrentHashMap<>();
+    private final NavigableMap<String, UUID> sortedNames = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    // Separate from the map monitor so logins never wait on disk I/O
+    private final Object saveLock = new Object();
+
+    public PlayerIndex(Path storagePath, Logger logger) {
+        this.indexFile = storagePath.resolve("players.json");
+        this.logger = logger;
+        load();
+    }
+
+    /**
+     * Remember a player's current name; cheap when nothing changed
+     */
+    public void record(UUID uuid, String username) {
+        if (username.equals(namesByUuid.get(uuid))) {
+            return;
+        }
+        synchronized (this) {
+            put(uuid, username);
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Case-insensitive exact lookup
+     *
+     * @return the UUID, or null if the name was never seen
+     */
+    public UUID findUuid(String username) {
+        return uuidsByName.get(username.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the last known name, or null
+     */
+    public String getName(UUID uuid) {
+        return namesByUuid.get(uuid);
+    }
+
+    /**
+     * Known names starting with a prefix (case-insensitive), in order
+     */
+    public List<String> complete(String prefix, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        List<String> matches = new ArrayList<>();
+        for (UUID uuid : sortedNames.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+            String name = namesByUuid.get(uuid);
+            if (name != null) {
+                matches.add(name);
+                if (matches.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    public int size() {
+        return namesByUuid.size();
+    }
+
+    /**
+     * Write players.json if anything changed since the last save
+     */
+    public void saveIfDirty() {
+        synchronized (saveLock) {
+            if (dirty.getAndSet(false)) {
+                save();
+            }
+        }
+    }
+
+    private void save() {
+        Path tempFile = indexFile.resolveSibling("players.json.tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                JsonWriter json = new JsonWriter(new OutputStreamWriter(Channels.newOutputStream(out), StandardCharsets.UTF_8));
+                json.setIndent("  ");
+                json.beginObject();
+                for (Map.Entry<UUID, String> entry : namesByUuid.entrySet()) {
+                    json.name(entry.getKey().toString()).value(entry.getValue());
+                }
+                json.endObject();
+                json.flush();
+                out.force(true);
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            logger.error("Failed to save players.json: {}", e.getMessage());
+        }
+    }
+
+    // Callers hold the monitor so the three maps change together
+    private void put(UUID uuid, String username) {
+        String previous = namesByUuid.put(uuid, username);
+        if (previous != null) {
+            String previousKey = previous.toLowerCase(Locale.ROOT);
+            uuidsByName.remove(previousKey, uuid);
+            sortedNames.remove(previousKey, uuid);
+        }
+        String key = username.toLowerCase(Locale.ROOT);
+        // Names are unique at any moment, so whoever logged in with it last owns it
+        UUID displaced = uuidsByName.put(key, uuid);
+        sortedNames.put(key, uuid);
+        if (displaced != null && !displaced.equals(uuid)) {
+            String displacedName = namesByUuid.get(displaced);
+            if (displacedName != null && displacedName.equalsIgnoreCase(username)) {
+                namesByUuid.remove(displaced, displacedName);
+            }
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            JsonReader json = new JsonReader(reader);
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                if (json.peek() != JsonToken.STRING) {
+                    json.skipValue();
+                    continue;
+                }
+                String name = json.nextString();
+                try {
+                    put(UUID.fromString(key), name);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Invalid UUID in players.json: {}", key);
+                }
+            }
+            json.endObject();
+            logger.info("Loaded {} known player names", namesByUuid.size());
+        } catch (Exception e) {
+            logger.error("Failed to load players.json: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The one place the plugin runs blocking work (file I/O, TOTP checks),
+ * so none of it lands on Velocity's Netty event loops.
+ *
+ * The backing threads are chosen by {@code Config.executorMode}:
+ * <ul>
+ *   <li>{@code virtual} - a virtual thread per task (default)</li>
+ *   <li>{@code platform} - a fixed pool of {@code executorThreads} with a
+ *       bounded queue; when it is full the submitting thread runs the task</li>
+ *   <li>{@code caller} - run inline on the calling thread</li>
+ * </ul>
+ * Every task is timed from submission to completion and the number of
+ * tasks waiting to start is tracked.
+ */
+public class PluginExecutor implements Executor {
+
+    public enum Mode { VIRTUAL, PLATFORM, CALLER }
+
+    static final int PLATFORM_QUEUE_CAPACITY = 1024;
+
+    private final Mode mode;
+    private final ExecutorService delegate;
+    private final Logger logger;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public PluginExecutor(String mode, int threads, Logger logger) {
+        this.logger = logger;
+        this.mode = parseMode(mode, logger);
+        switch (this.mode) {
+            case PLATFORM: {
+                AtomicInteger counter = new AtomicInteger();
+                this.delegate = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads),
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(PLATFORM_QUEUE_CAPACITY), r -> {
+                        Thread thread = new Thread(r, "Velocity2FA-Worker-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+                break;
+            }
+            case CALLER:
+                this.delegate = null;
+                break;
+            case VIRTUAL:
+            default:
+                this.delegate = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("Velocity2FA-Virtual-", 0).factory());
+                break;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long submitted = System.nanoTime();
+        queued.incrementAndGet();
+        Runnable timed = () -> {
+            queued.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failed.increment();
+                throw e;
+            } finally {
+                record(System.nanoTime() - submitted);
+            }
+        };
+        if (delegate == null) {
+            timed.run();
+        } else {
+            delegate.execute(timed);
+        }
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, this);
+    }
+
+    public CompletableFuture<Void> runAsync(Runnable task) {
+        return CompletableFuture.runAsync(task, this);
+    }
+
+    public void shutdown() {
+        if (delegate == null) {
+            return;
+        }
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Velocity2FA executor did not finish {} queued tasks", queued.get());
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Mode getMode() { return mode; }
+    public int getQueueDepth() { return queued.get(); }
+    public long getCompletedTasks() { return completed.sum(); }
+    public long getFailedTasks() { return failed.sum(); }
+    public long getMaxLatencyMicros() { return maxLatencyNanos.get() / 1000L; }
+
+    public long getAverageLatencyMicros() {
+        long count = completed.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / count / 1000L;
+    }
+
+    private void record(long latencyNanos) {
+        completed.increment();
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    private static Mode parseMode(String mode, Logger logger) {
+        if (mode == null) {
+            return Mode.VIRTUAL;
+        }
+        try {
+            return Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown executorMode '{}', using virtual threads", mode);
+            return Mode.VIRTUAL;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.queazified.velocity2fa;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Creates files that hold secrets in plain form (exports, the master key)
+ * so only the proxy's own user can read them.
+ */
+final class PrivateFiles {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY =
+        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+    private PrivateFiles() {
+    }
+
+    /**
+     * Create an empty file as rw------- where the file system has POSIX
+     * permissions, replacing any file already there
+     *
+     * @return false if the file was created with default permissions
+     *         because the file system has no POSIX permissions
+     */
+    static boolean create(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file);
+            return false;
+        }
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        return true;
+    }
+}
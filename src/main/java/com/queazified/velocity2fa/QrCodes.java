@@ -0,0 +1,204 @@
+package com.queazified.velocity2fa;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.JoinConfiguration;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders otpauth URIs as QR codes for {@code /2fa setup}: a map of block
+ * characters for chat, and optionally a PNG in {@code qrImageDirectory}.
+ *
+ * Rendering runs on the plugin executor. Results are kept in a small LRU
+ * cache keyed by player, together with the URI they were drawn from, so
+ * showing the same enrollment again costs nothing and a new secret is
+ * always redrawn. Concurrent requests for one player share the render.
+ * The PNG holds the secret, so it is deleted as soon as its entry leaves
+ * the cache, whether invalidated or evicted.
+ */
+public class QrCodes {
+
+    static final int CACHE_SIZE = 256;
+    static final int IMAGE_SIZE = 256;
+    // Quiet zone in modules; 1 keeps the chat map short, scanners cope with it on a dark chat background
+    static final int CHAT_MARGIN = 1;
+    static final int IMAGE_MARGIN = 4;
+    static final String MODULE = "█";
+
+    private final Executor executor;
+    private final Logger logger;
+    private final Map<UUID, Entry> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+            if (size() <= CACHE_SIZE) {
+                return false;
+            }
+            deleteImage(eldest.getValue());
+            return true;
+        }
+    };
+
+    public QrCodes(Executor executor, Logger logger) {
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    /**
+     * @param imageDirectory where to write {@code <uuid>.png}, or null for chat only
+     * @return the rendered code, completed exceptionally if the URI can't be encoded
+     */
+    public CompletableFuture<QrCode> render(UUID uuid, String uri, Path imageDirectory) {
+        synchronized (cache) {
+            Entry cached = cache.get(uuid);
+            if (cached != null && cached.uri.equals(uri) && !cached.future.isCompletedExceptionally()) {
+                return cached.future;
+            }
+            CompletableFuture<QrCode> future = CompletableFuture.supplyAsync(() -> draw(uuid, uri, imageDirectory), executor);
+            cache.put(uuid, new Entry(uri, future));
+            return future;
+        }
+    }
+
+    /**
+     * Forget a player's code and delete its image, e.g. once setup is
+     * confirmed or when 2FA is disabled
+     */
+    public void invalidate(UUID uuid) {
+        Entry removed;
+        synchronized (cache) {
+            removed = cache.remove(uuid);
+        }
+        if (removed != null) {
+            deleteImage(removed);
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Delete the entry's PNG once it is drawn; runs on the executor, never under the cache lock
+     */
+    private void deleteImage(Entry entry) {
+        entry.future.thenAcceptAsync(code -> {
+            if (code.image != null) {
+                try {
+                    Files.deleteIfExists(code.image);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete QR image {}: {}", code.image, e.getMessage());
+                }
+            }
+        }, executor);
+    }
+
+    private QrCode draw(UUID uuid, String uri, Path imageDirectory) {
+        try {
+            QRCodeWriter writer = new QRCodeWriter();
+            // Width 0 gives one matrix cell per module
+            BitMatrix modules = writer.encode(uri, BarcodeFormat.QR_CODE, 0, 0, hints(CHAT_MARGIN));
+            Path image = null;
+            if (imageDirectory != null) {
+                image = writeImage(writer.encode(uri, BarcodeFormat.QR_CODE, IMAGE_SIZE, IMAGE_SIZE, hints(IMAGE_MARGIN)),
+                    imageDirectory.resolve(uuid + ".png"));
+            }
+            return new QrCode(toChat(modules), image);
+        } catch (WriterException e) {
+            throw new IllegalStateException("Failed to encode QR code: " + e.getMessage(), e);
+        }
+    }
+
+    private Path writeImage(BitMatrix matrix, Path file) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            MatrixToImageWriter.writeToPath(matrix, "PNG", temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
+        } catch (IOException e) {
+            // The chat map still works without it
+            logger.warn("Failed to write QR image {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * One line per module row; runs of the same colour share a component
+     */
+    static Component toChat(BitMatrix modules) {
+        List<Component> rows = new ArrayList<>(modules.getHeight());
+        StringBuilder run = new StringBuilder();
+        for (int y = 0; y < modules.getHeight(); y++) {
+            TextComponent.Builder row = Component.text();
+            boolean dark = modules.get(0, y);
+            for (int x = 0; x < modules.getWidth(); x++) {
+                if (modules.get(x, y) != dark) {
+                    row.append(module(run, dark));
+                    run.setLength(0);
+                    dark = !dark;
+                }
+                run.append(MODULE);
+            }
+            row.append(module(run, dark));
+            run.setLength(0);
+            rows.add(row.build());
+        }
+        return Component.join(JoinConfiguration.newlines(), rows);
+    }
+
+    private static Component module(StringBuilder run, boolean dark) {
+        return Component.text(run.toString(), dark ? NamedTextColor.BLACK : NamedTextColor.WHITE);
+    }
+
+    private static Map<EncodeHintType, Object> hints(int margin) {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
+        hints.put(EncodeHintType.MARGIN, margin);
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        return hints;
+    }
+
+    public static final class QrCode {
+        public final Component chat;
+        /** The PNG, or null if images are off or it could not be written */
+        public final Path image;
+
+        QrCode(Component chat, Path image) {
+            this.chat = chat;
+            this.image = image;
+        }
+    }
+
+    private static final class Entry {
+        final String uri;
+        final CompletableFuture<QrCode> future;
+
+        Entry(String uri, CompletableFuture<QrCode> future) {
+            this.uri = uri;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.queazified.velocity2fa;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-use recovery codes for staff who lose their authenticator,
+ * persisted to recovery.json.
+ *
+ * Only salted hashes are kept: per player one record of a 16-byte salt, a
+ * bitmask of used codes and {@link #CODE_COUNT} truncated SHA-256 hashes,
+ * stored as one base64 string. A code is 80 random bits written as
+ * {@code XXXX-XXXX-XXXX-XXXX} in Base32, so it can never be mistaken for a
+ * numeric TOTP code. Checks hash the input once and compare it with every
+ * slot without stopping early; a match is claimed by a CAS on the used
+ * mask, so one code can't be redeemed twice.
+ *
+ * recovery.json is rewritten by a single background writer, never on the
+ * caller's thread; changes made while a write is queued share it. New
+ * codes are only handed out once the write that holds them has finished,
+ * and a code only counts as redeemed once its used bit is on disk.
+ */
+public class RecoveryCodes {
+
+    static final int CODE_COUNT = 8;
+    static final int CODE_CHARS = 16;
+    static final int GROUP_CHARS = 4;
+    static final int SALT_BYTES = 16;
+    static final int HASH_BYTES = 16;
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path file;
+    private final Logger logger;
+    private final Map<UUID, Record> records = new ConcurrentHashMap<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Velocity2FA-Recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object saveLock = new Object();
+    // The write that will pick up changes made now; null until one is queued
+    private CompletableFuture<Void> queuedSave;
+
+    public RecoveryCodes(Path storagePath, Logger logger) {
+        this.file = storagePath.resolve("recovery.json");
+        this.logger = logger;
+        load();
+    }
+
+    /**
+     * Whether the input has the shape of a recovery code rather than a TOTP code
+     */
+    public static boolean looksLikeCode(String input) {
+        String normalized = normalize(input);
+        if (normalized.length() != CODE_CHARS) {
+            return false;
+        }
+        for (int i = 0; i < normalized.length(); i++) {
+            if (ALPHABET.indexOf(normalized.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the player's codes with a fresh set
+     *
+     * @return the new codes once they are saved; they can't be shown again.
+     *         If the write fails the previous codes stay valid and the
+     *         future completes exceptionally.
+     */
+    public CompletableFuture<List<String>> issue(UUID uuid) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hashes = new byte[CODE_COUNT * HASH_BYTES];
+        List<String> codes = new ArrayList<>(CODE_COUNT);
+        for (int i = 0; i < CODE_COUNT; i++) {
+            String code = randomCode();
+            System.arraycopy(hash(salt, normalize(code)), 0, hashes, i * HASH_BYTES, HASH_BYTES);
+            codes.add(code);
+        }
+        Record issued = new Record(salt, hashes, 0);
+        Record previous = records.put(uuid, issued);
+        return save().handle((saved, e) -> {
+            if (e != null) {
+                // Nobody has seen the new codes; keep the ones that are on disk
+                if (previous != null) {
+                    records.replace(uuid, issued, previous);
+                } else {
+                    records.remove(uuid, issued);
+                }
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
+            return codes;
+        });
+    }
+
+    /**
+     * Redeem a code; each one works once. Waits for the write that marks it
+     * used, so a code accepted now can't come back after a restart; if that
+     * write fails the code stays unused and is refused.
+     *
+     * @return true if the code was valid and unused
+     */
+    public boolean consume(UUID uuid, String input) {
+        Record record = records.get(uuid);
+        if (record == null) {
+            return false;
+        }
+        byte[] candidate = hash(record.salt, normalize(input));
+        int matches = 0;
+        byte[] slot = new byte[HASH_BYTES];
+        for (int i = 0; i < CODE_COUNT; i++) {
+            System.arraycopy(record.hashes, i * HASH_BYTES, slot, 0, HASH_BYTES);
+            matches |= (MessageDigest.isEqual(slot, candidate) ? 1 : 0) << i;
+        }
+        while (true) {
+            int used = record.used.get();
+            int available = matches & ~used;
+            if (available == 0) {
+                return false;
+            }
+            int claimed = Integer.lowestOneBit(available);
+            if (record.used.compareAndSet(used, used | claimed)) {
+                try {
+                    save().join();
+                    return true;
+                } catch (CompletionException e) {
+                    record.used.getAndUpdate(mask -> mask & ~claimed);
+                    logger.error("Recovery code for {} refused, its use could not be saved: {}", uuid,
+                        e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return unused codes the player has left
+     */
+    public int remaining(UUID uuid) {
+        Record record = records.get(uuid);
+        return record == null ? 0 : CODE_COUNT - Integer.bitCount(record.used.get());
+    }
+
+    public void remove(UUID uuid) {
+        if (records.remove(uuid) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Wait for queued writes and stop the writer
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for recovery.json to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a rewrite of recovery.json, or join the one already queued
+     *
+     * @return completes once a write that includes every change so far is on disk
+     */
+    private CompletableFuture<Void> save() {
+        synchronized (saveLock) {
+            if (queuedSave != null) {
+                return queuedSave;
+            }
+            CompletableFuture<Void> saved = new CompletableFuture<>();
+            try {
+                writer.execute(() -> write(saved));
+            } catch (RejectedExecutionException e) {
+                logger.error("recovery.json writer is closed, recovery code change not saved");
+                saved.completeExceptionally(new IllegalStateException("recovery.json writer is closed"));
+                return saved;
+            }
+            queuedSave = saved;
+            return saved;
+        }
+    }
+
+    /**
+     * Runs on the writer thread only
+     */
+    private void write(CompletableFuture<Void> saved) {
+        synchronized (saveLock) {
+            // Anything changed from here on needs the next write
+            queuedSave = null;
+        }
+        Path tempFile = file.resolveSibling("recovery.json.tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                JsonWriter json = new JsonWriter(new OutputStreamWriter(Channels.newOutputStream(out), StandardCharsets.UTF_8));
+                json.setIndent("  ");
+                json.beginObject();
+                for (Map.Entry<UUID, Record> entry : records.entrySet()) {
+                    json.name(entry.getKey().toString()).value(entry.getValue().encode());
+                }
+                json.endObject();
+                json.flush();
+                out.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            saved.complete(null);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to save recovery.json: {}", e.getMessage());
+            saved.completeExceptionally(e);
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonReader json = new JsonReader(reader);
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                if (json.peek() != JsonToken.STRING) {
+                    json.skipValue();
+                    continue;
+                }
+                String value = json.nextString();
+                try {
+                    records.put(UUID.fromString(key), Record.decode(value));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Invalid recovery codes in recovery.json for {}", key);
+                }
+            }
+            json.endObject();
+        } catch (Exception e) {
+            logger.error("Failed to load recovery.json: {}", e.getMessage());
+        }
+    }
+
+    private static String randomCode() {
+        StringBuilder code = new StringBuilder(CODE_CHARS + CODE_CHARS / GROUP_CHARS);
+        for (int i = 0; i < CODE_CHARS; i++) {
+            if (i > 0 && i % GROUP_CHARS == 0) {
+                code.append('-');
+            }
+            code.append(ALPHABET.charAt(RANDOM.nextInt(ALPHABET.length())));
+        }
+        return code.toString();
+    }
+
+    private static String normalize(String input) {
+        StringBuilder normalized = new StringBuilder(CODE_CHARS);
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c != '-' && c != ' ') {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toUpperCase(Locale.ROOT);
+    }
+
+    private static byte[] hash(byte[] salt, String normalized) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            byte[] full = digest.digest(normalized.getBytes(StandardCharsets.US_ASCII));
+            byte[] truncated = new byte[HASH_BYTES];
+            System.arraycopy(full, 0, truncated, 0, HASH_BYTES);
+            return truncated;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * salt(16) used(4) hashes(8 x 16)
+     */
+    private static final class Record {
+        final byte[] salt;
+        final byte[] hashes;
+        final AtomicInteger used;
+
+        Record(byte[] salt, byte[] hashes, int used) {
+            this.salt = salt;
+            this.hashes = hashes;
+            this.used = new AtomicInteger(used);
+        }
+
+        String encode() {
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(SALT_BYTES + 4 + hashes.length)
+                .put(salt).putInt(used.get()).put(hashes).array());
+        }
+
+        static Record decode(String value) {
+            byte[] raw = Base64.getDecoder().decode(value);
+            if (raw.length != SALT_BYTES + 4 + CODE_COUNT * HASH_BYTES) {
+                throw new IllegalArgumentException("wrong length");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            byte[] salt = new byte[SALT_BYTES];
+            buffer.get(salt);
+            int used = buffer.getInt();
+            byte[] hashes = new byte[CODE_COUNT * HASH_BYTES];
+            buffer.get(hashes);
+            return new Record(salt, hashes, used);
+        }
+    }
+}
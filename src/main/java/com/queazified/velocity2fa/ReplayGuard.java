@@ -0,0 +1,171 @@
+package com.queazified.velocity2fa;
+
+import java.util.UUID;
+
+/**
+ * Remembers the last TOTP time step each player successfully used, so a
+ * code (or an older one from the same window) cannot be accepted twice.
+ *
+ * Stored as a striped open-addressing table of primitive longs: no boxing
+ * and no allocation on the verify path. Entries whose step has fallen out
+ * of the verification window can no longer block anything, so they are
+ * treated as free slots and dropped whenever a stripe is rebuilt.
+ */
+public class ReplayGuard {
+
+    private static final int STRIPES = 32;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public ReplayGuard() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Record a verified step unless it is a replay
+     *
+     * @param step           time step the code matched
+     * @param oldestLiveStep oldest step still inside the verification window;
+     *                       anything stored before it has expired
+     * @return false if the player already used this step or a later one
+     */
+    public boolean tryAccept(UUID uuid, long step, long oldestLiveStep) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = mix(msb ^ lsb);
+        Stripe stripe = stripes[(hash >>> 27) & (STRIPES - 1)];
+        synchronized (stripe) {
+            return stripe.tryAccept(msb, lsb, hash, step, oldestLiveStep);
+        }
+    }
+
+    /**
+     * Forget a player, e.g. when their secret is removed or replaced
+     */
+    public void forget(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = mix(msb ^ lsb);
+        Stripe stripe = stripes[(hash >>> 27) & (STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.forget(msb, lsb, hash);
+        }
+    }
+
+    /**
+     * Forget everyone, e.g. after the time step length changed
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static final class Stripe {
+        // step == 0 marks a never-used slot; real TOTP steps are always > 0
+        private long[] msbs = new long[INITIAL_STRIPE_CAPACITY];
+        private long[] lsbs = new long[INITIAL_STRIPE_CAPACITY];
+        private long[] steps = new long[INITIAL_STRIPE_CAPACITY];
+        private int occupied;
+
+        boolean tryAccept(long msb, long lsb, int hash, long step, long oldestLiveStep) {
+            int mask = steps.length - 1;
+            int reusable = -1;
+            int slot = hash & mask;
+            while (steps[slot] != 0) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    if (steps[slot] >= oldestLiveStep && step <= steps[slot]) {
+                        return false;
+                    }
+                    steps[slot] = step;
+                    return true;
+                }
+                if (reusable < 0 && steps[slot] < oldestLiveStep) {
+                    reusable = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (reusable >= 0) {
+                slot = reusable;
+            } else {
+                occupied++;
+            }
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            steps[slot] = step;
+            if (occupied * 4 > steps.length * 3) {
+                rebuild(oldestLiveStep);
+            }
+            return true;
+        }
+
+        void clear() {
+            msbs = new long[INITIAL_STRIPE_CAPACITY];
+            lsbs = new long[INITIAL_STRIPE_CAPACITY];
+            steps = new long[INITIAL_STRIPE_CAPACITY];
+            occupied = 0;
+        }
+
+        void forget(long msb, long lsb, int hash) {
+            int mask = steps.length - 1;
+            int slot = hash & mask;
+            while (steps[slot] != 0) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    // Keep the probe chain intact: just make the entry expired
+                    steps[slot] = 1;
+                    msbs[slot] = 0;
+                    lsbs[slot] = 0;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void rebuild(long oldestLiveStep) {
+            int live = 0;
+            for (long s : steps) {
+                if (s >= oldestLiveStep) {
+                    live++;
+                }
+            }
+            int capacity = steps.length;
+            while (live * 2 > capacity) {
+                capacity *= 2;
+            }
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            long[] oldSteps = steps;
+            msbs = new long[capacity];
+            lsbs = new long[capacity];
+            steps = new long[capacity];
+            occupied = 0;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldSteps.length; i++) {
+                if (oldSteps[i] < oldestLiveStep) {
+                    continue;
+                }
+                int slot = mix(oldMsbs[i] ^ oldLsbs[i]) & mask;
+                while (steps[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                msbs[slot] = oldMsbs[i];
+                lsbs[slot] = oldLsbs[i];
+                steps[slot] = oldSteps[i];
+                occupied++;
+            }
+        }
+    }
+}
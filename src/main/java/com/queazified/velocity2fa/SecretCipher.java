@@ -0,0 +1,421 @@
+package com.queazified.velocity2fa;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AES-GCM envelope encryption for stored secrets.
+ *
+ * Each secret is encrypted with a random 256-bit data key; data keys are
+ * kept in {@code secrets.keyring}, themselves encrypted with a master key
+ * read from a key file or derived from a passphrase (PBKDF2-HMAC-SHA256).
+ * The master key is only used to unwrap the keyring at startup and when a
+ * new data key is added.
+ *
+ * A stored value is {@code $} followed by unpadded base64url of
+ * {@code keyId(2) nonce(12) ciphertext tag(16)}, with the player's UUID as
+ * associated data so values can't be swapped between players. Values
+ * without the {@code $} are plaintext from before encryption was turned
+ * on and are passed through until re-encrypted.
+ */
+public final class SecretCipher {
+
+    public static final String PREFIX = "$";
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int KEY_BYTES = 32;
+    static final int NONCE_BYTES = 12;
+    static final int TAG_BITS = 128;
+    static final int SALT_BYTES = 16;
+    static final int PBKDF2_ITERATIONS = 600_000;
+    static final String PASSPHRASE_ENV = "VELOCITY2FA_PASSPHRASE";
+    private static final Set<PosixFilePermission> SHARED = EnumSet.of(
+        PosixFilePermission.GROUP_READ, PosixFilePermission.GROUP_WRITE,
+        PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path keyringFile;
+    private final SecretKey masterKey;
+    private final Logger logger;
+    private Keyring keyring;
+    private FileTime keyringModified;
+    private final Map<Short, SecretKey> dataKeys = new ConcurrentHashMap<>();
+    private volatile short activeId;
+
+    private SecretCipher(Path keyringFile, SecretKey masterKey, Keyring keyring, Logger logger)
+            throws GeneralSecurityException {
+        this.keyringFile = keyringFile;
+        this.masterKey = masterKey;
+        this.logger = logger;
+        this.keyring = keyring;
+        unwrapAll(keyring);
+    }
+
+    /**
+     * The encryption settings from config.json
+     */
+    public static final class Settings {
+        /** none, keyfile or passphrase */
+        public final String mode;
+        public final Path keyFile;
+        final String passphrase;
+
+        public Settings(String mode, Path keyFile, String passphrase) {
+            this.mode = mode;
+            this.keyFile = keyFile;
+            this.passphrase = passphrase;
+        }
+
+        public static Settings of(ConfigSnapshot config, Path dataDirectory) {
+            Path keyFile = config.encryptionKeyFile != null
+                ? dataDirectory.resolve(config.encryptionKeyFile) : dataDirectory.resolve("secrets.key");
+            return new Settings(config.encryption, keyFile, config.encryptionPassphrase);
+        }
+
+        public boolean isEnabled() {
+            return !"none".equals(mode);
+        }
+
+        /**
+         * @return the cipher, or null when encryption is off
+         */
+        public SecretCipher open(Path keyringFile, Logger logger) throws IOException, GeneralSecurityException {
+            switch (mode) {
+                case "keyfile":
+                    return withKeyFile(keyringFile, keyFile, logger);
+                case "passphrase":
+                    return withPassphrase(keyringFile, passphrase, logger);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Open (or create) the keyring with a master key from a key file. A
+     * missing key file is generated readable by the proxy's user only.
+     * Anyone who can read the key file and the secrets can decrypt them, so
+     * keep it outside the plugin folder and its backups where possible.
+     */
+    public static SecretCipher withKeyFile(Path keyringFile, Path keyFile, Logger logger)
+            throws IOException, GeneralSecurityException {
+        byte[] raw;
+        if (Files.exists(keyFile)) {
+            warnIfShared(keyFile, logger);
+            raw = Base64.getDecoder().decode(Files.readString(keyFile, StandardCharsets.US_ASCII).trim());
+            if (raw.length != KEY_BYTES) {
+                throw new GeneralSecurityException(keyFile.getFileName() + " must hold a base64 256-bit key");
+            }
+        } else {
+            raw = new byte[KEY_BYTES];
+            RANDOM.nextBytes(raw);
+            if (!PrivateFiles.create(keyFile)) {
+                logger.warn("Could not restrict permissions on {}; make sure only the proxy can read it", keyFile);
+            }
+            Files.writeString(keyFile, Base64.getEncoder().encodeToString(raw) + "\n", StandardCharsets.US_ASCII);
+            logger.warn("Generated a new 2FA encryption key at {}; back it up, secrets can't be read without it", keyFile);
+        }
+        Keyring keyring = readKeyring(keyringFile);
+        if (keyring == null) {
+            keyring = new Keyring("keyfile", null, 0);
+        }
+        return open(keyringFile, new SecretKeySpec(raw, "AES"), keyring, logger);
+    }
+
+    private static void warnIfShared(Path keyFile, Logger logger) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(keyFile);
+            permissions.retainAll(SHARED);
+            if (!permissions.isEmpty()) {
+                logger.warn("{} can be read by other users; chmod 600 it", keyFile);
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            // No POSIX permissions to check here
+        }
+    }
+
+    /**
+     * Open (or create) the keyring with a master key derived from a
+     * passphrase; the config value wins over the environment variable
+     */
+    public static SecretCipher withPassphrase(Path keyringFile, String passphrase, Logger logger)
+            throws IOException, GeneralSecurityException {
+        String secret = passphrase != null && !passphrase.isEmpty() ? passphrase : System.getenv(PASSPHRASE_ENV);
+        if (secret == null || secret.isEmpty()) {
+            throw new GeneralSecurityException("no passphrase in encryptionPassphrase or " + PASSPHRASE_ENV);
+        }
+        Keyring keyring = readKeyring(keyringFile);
+        if (keyring == null) {
+            byte[] salt = new byte[SALT_BYTES];
+            RANDOM.nextBytes(salt);
+            keyring = new Keyring("pbkdf2-sha256", Base64.getEncoder().encodeToString(salt), PBKDF2_ITERATIONS);
+        }
+        if (keyring.salt == null) {
+            throw new GeneralSecurityException(keyringFile.getFileName() + " was created for a key file, not a passphrase");
+        }
+        char[] chars = secret.toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(chars, Base64.getDecoder().decode(keyring.salt), keyring.iterations, KEY_BYTES * 8);
+        try {
+            byte[] raw = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return open(keyringFile, new SecretKeySpec(raw, "AES"), keyring, logger);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    private static SecretCipher open(Path keyringFile, SecretKey masterKey, Keyring keyring, Logger logger)
+            throws IOException, GeneralSecurityException {
+        SecretCipher cipher;
+        try {
+            cipher = new SecretCipher(keyringFile, masterKey, keyring, logger);
+        } catch (AEADBadTagException e) {
+            throw new GeneralSecurityException("wrong key or passphrase for " + keyringFile.getFileName());
+        }
+        if (cipher.dataKeys.isEmpty()) {
+            cipher.rotate();
+        }
+        return cipher;
+    }
+
+    public static boolean isEncrypted(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /**
+     * Whether the value is already encrypted with the current data key
+     */
+    public boolean isCurrent(String value) {
+        if (!isEncrypted(value)) {
+            return false;
+        }
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(value.substring(PREFIX.length()));
+            return payload.length > 2 && ByteBuffer.wrap(payload).getShort() == activeId;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public String encrypt(UUID uuid, String secret) {
+        refreshIfChanged();
+        short id = activeId;
+        try {
+            byte[] sealed = crypt(Cipher.ENCRYPT_MODE, dataKeys.get(id), secret.getBytes(StandardCharsets.US_ASCII), aad(uuid));
+            ByteBuffer payload = ByteBuffer.allocate(2 + sealed.length).putShort(id).put(sealed);
+            return PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(payload.array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt 2FA secret: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the plaintext secret; plaintext values are returned unchanged
+     * @throws IllegalArgumentException if the value can't be decrypted
+     */
+    public String decrypt(UUID uuid, String value) {
+        if (!isEncrypted(value)) {
+            return value;
+        }
+        try {
+            ByteBuffer payload = ByteBuffer.wrap(Base64.getUrlDecoder().decode(value.substring(PREFIX.length())));
+            short id = payload.getShort();
+            SecretKey key = dataKeys.get(id);
+            if (key == null && refreshIfChanged()) {
+                key = dataKeys.get(id);
+            }
+            if (key == null) {
+                throw new IllegalArgumentException("secret for " + uuid + " encrypted with unknown key " + id);
+            }
+            byte[] sealed = new byte[payload.remaining()];
+            payload.get(sealed);
+            return new String(crypt(Cipher.DECRYPT_MODE, key, sealed, aad(uuid)), StandardCharsets.US_ASCII);
+        } catch (GeneralSecurityException | BufferUnderflowException e) {
+            throw new IllegalArgumentException("Failed to decrypt 2FA secret for " + uuid + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add a fresh data key and use it for every new encryption. Older keys
+     * stay readable until {@link #retireOldKeys()}.
+     */
+    public synchronized void rotate() throws IOException, GeneralSecurityException {
+        refreshIfChanged();
+        byte[] raw = new byte[KEY_BYTES];
+        RANDOM.nextBytes(raw);
+        short id = (short) (keyring.keys.keySet().stream().mapToInt(Integer::parseInt).max().orElse(0) + 1);
+        keyring.keys.put(Short.toString(id), Base64.getEncoder().encodeToString(
+            crypt(Cipher.ENCRYPT_MODE, masterKey, raw, keyringAad(id))));
+        keyring.active = id;
+        dataKeys.put(id, new SecretKeySpec(raw, "AES"));
+        saveKeyring();
+        activeId = id;
+    }
+
+    /**
+     * Forget every data key but the active one, once nothing uses them
+     */
+    public synchronized void retireOldKeys() throws IOException {
+        refreshIfChanged();
+        short active = activeId;
+        if (keyring.keys.keySet().removeIf(id -> Short.parseShort(id) != active)) {
+            saveKeyring();
+            dataKeys.keySet().removeIf(id -> id != active);
+        }
+    }
+
+    public short getActiveKeyId() {
+        return activeId;
+    }
+
+    public Path getKeyringFile() {
+        return keyringFile;
+    }
+
+    /**
+     * Pick up keys added or retired by another proxy sharing the keyring
+     * (h2 databases shared between proxies). Costs one stat call, and is
+     * only done on writes and for values with an unknown key.
+     *
+     * @return true if the keyring was reloaded
+     */
+    private synchronized boolean refreshIfChanged() {
+        try {
+            if (!Files.exists(keyringFile) || Files.getLastModifiedTime(keyringFile).equals(keyringModified)) {
+                return false;
+            }
+            Keyring latest = readKeyring(keyringFile);
+            if (latest.keys.isEmpty()) {
+                return false;
+            }
+            unwrapAll(latest);
+            keyring = latest;
+            return true;
+        } catch (IOException | GeneralSecurityException e) {
+            // Don't retry (and log) on every write until the file changes again
+            keyringModified = lastModified();
+            logger.error("Failed to reload {}, keeping the current keys: {}", keyringFile.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void unwrapAll(Keyring source) throws GeneralSecurityException {
+        Map<Short, SecretKey> unwrapped = new HashMap<>();
+        for (Map.Entry<String, String> entry : source.keys.entrySet()) {
+            short id = Short.parseShort(entry.getKey());
+            byte[] raw = crypt(Cipher.DECRYPT_MODE, masterKey, Base64.getDecoder().decode(entry.getValue()),
+                keyringAad(id));
+            unwrapped.put(id, new SecretKeySpec(raw, "AES"));
+        }
+        // Add before removing so a concurrent decrypt never misses a key that is still in use
+        dataKeys.putAll(unwrapped);
+        dataKeys.keySet().retainAll(unwrapped.keySet());
+        activeId = source.active;
+        keyringModified = lastModified();
+    }
+
+    private void saveKeyring() throws IOException {
+        Path temp = keyringFile.resolveSibling(keyringFile.getFileName() + ".tmp");
+        Files.writeString(temp, GSON.toJson(keyring), StandardCharsets.UTF_8);
+        Files.move(temp, keyringFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        keyringModified = lastModified();
+    }
+
+    private FileTime lastModified() {
+        try {
+            return Files.exists(keyringFile) ? Files.getLastModifiedTime(keyringFile) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Keyring readKeyring(Path keyringFile) throws IOException, GeneralSecurityException {
+        if (!Files.exists(keyringFile)) {
+            return null;
+        }
+        try {
+            Keyring keyring = GSON.fromJson(Files.readString(keyringFile, StandardCharsets.UTF_8), Keyring.class);
+            if (keyring == null || keyring.keys == null) {
+                throw new GeneralSecurityException(keyringFile.getFileName() + " is empty");
+            }
+            return keyring;
+        } catch (JsonParseException e) {
+            throw new GeneralSecurityException(keyringFile.getFileName() + " is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * One-shot AES-GCM; output (or input) is nonce followed by ciphertext and tag
+     */
+    private static byte[] crypt(int mode, SecretKey key, byte[] input, byte[] aad) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        if (mode == Cipher.ENCRYPT_MODE) {
+            byte[] nonce = new byte[NONCE_BYTES];
+            RANDOM.nextBytes(nonce);
+            cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(aad);
+            byte[] sealed = cipher.doFinal(input);
+            return ByteBuffer.allocate(NONCE_BYTES + sealed.length).put(nonce).put(sealed).array();
+        }
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, input, 0, NONCE_BYTES));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(input, NONCE_BYTES, input.length - NONCE_BYTES);
+    }
+
+    private static byte[] aad(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    private static byte[] keyringAad(short id) {
+        return ("velocity2fa-key-" + id).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * secrets.keyring on disk
+     */
+    private static final class Keyring {
+        int version = 1;
+        String kdf;
+        String salt;
+        int iterations;
+        short active;
+        Map<String, String> keys = new LinkedHashMap<>();
+
+        Keyring(String kdf, String salt, int iterations) {
+            this.kdf = kdf;
+            this.salt = salt;
+            this.iterations = iterations;
+        }
+    }
+}
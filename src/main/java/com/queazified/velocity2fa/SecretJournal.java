@@ -0,0 +1,296 @@
+package com.queazified.velocity2fa;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind persistence for 2FA secrets.
+ *
+ * Mutations are appended to {@code secrets.journal} by a single background
+ * writer which batches everything queued since its last run into one write
+ * and one fsync. Once the journal grows past {@link #COMPACT_THRESHOLD}
+ * entries the live map is written out as a fresh {@code secrets.json}
+ * snapshot (temp file + fsync + atomic rename) and the journal is truncated.
+ *
+ * The snapshot keeps the original {@code secrets.json} format, so legacy
+ * files are picked up as-is on first start.
+ */
+public class SecretJournal implements AutoCloseable {
+
+    static final int COMPACT_THRESHOLD = 1000;
+
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Logger logger;
+    private final Gson gson = new Gson();
+    private final Supplier<Map<UUID, String>> liveView;
+
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Velocity2FA-Journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched from the writer thread (and load() before it starts)
+    private FileChannel channel;
+    private int entriesSinceCompaction;
+
+    public SecretJournal(Path storagePath, Logger logger, Supplier<Map<UUID, String>> liveView) {
+        this.snapshotFile = storagePath.resolve("secrets.json");
+        this.journalFile = storagePath.resolve("secrets.journal");
+        this.logger = logger;
+        this.liveView = liveView;
+    }
+
+    /**
+     * Read the snapshot, replay the journal on top of it and put the result
+     * into the live map. Must be called once before any mutation is recorded.
+     *
+     * @param live the map behind {@code liveView}; it is filled before any
+     *             compaction is scheduled, so a snapshot never misses secrets
+     * @throws IllegalStateException if secrets.json or secrets.journal can't
+     *         be read; nothing is ever written over them then
+     */
+    public void load(Map<UUID, String> live) {
+        try {
+            live.putAll(readStoredSecrets());
+        } catch (IllegalStateException e) {
+            // close() would compact the empty map over the unreadable file
+            writer.shutdown();
+            throw e;
+        }
+
+        try {
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.error("Failed to open secrets.journal, changes will only be snapshotted: {}", e.getMessage());
+        }
+
+        // Fold a non-empty journal into the snapshot right away
+        if (entriesSinceCompaction > 0) {
+            writer.execute(this::compact);
+        }
+    }
+
+    /**
+     * Snapshot plus journal replay, without touching any open handles
+     *
+     * @throws IllegalStateException if either file exists but can't be read
+     */
+    Map<UUID, String> readStoredSecrets() {
+        Map<UUID, String> secrets = new HashMap<>();
+
+        if (Files.exists(snapshotFile)) {
+            try (Reader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+                TypeToken<Map<String, String>> typeToken = new TypeToken<Map<String, String>>() {};
+                Map<String, String> map = gson.fromJson(reader, typeToken.getType());
+                if (map != null) {
+                    for (Map.Entry<String, String> entry : map.entrySet()) {
+                        try {
+                            secrets.put(UUID.fromString(entry.getKey()), entry.getValue());
+                        } catch (IllegalArgumentException e) {
+                            logger.warn("Invalid UUID in secrets file: {}", entry.getKey());
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // Starting empty would let the next compaction overwrite the file
+                throw new IllegalStateException("Failed to load secrets.json: " + e.getMessage(), e);
+            }
+        }
+
+        if (Files.exists(journalFile)) {
+            int replayed = 0;
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (applyJournalLine(secrets, line)) {
+                        replayed++;
+                    } else if (!line.isEmpty()) {
+                        // A torn write from a crash can only ever be the last line
+                        logger.warn("Skipping corrupt journal entry: {}", line);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to replay secrets.journal: " + e.getMessage(), e);
+            }
+            entriesSinceCompaction = replayed;
+            if (replayed > 0) {
+                logger.info("Replayed {} journal entries", replayed);
+            }
+        }
+        return secrets;
+    }
+
+    public void recordPut(UUID uuid, String secret) {
+        enqueue(PUT + " " + uuid + " " + secret + "\n");
+    }
+
+    public void recordRemove(UUID uuid) {
+        enqueue(REMOVE + " " + uuid + "\n");
+    }
+
+    /**
+     * Flush anything pending, write a final snapshot and stop the writer.
+     */
+    @Override
+    public void close() {
+        writer.execute(() -> {
+            flush();
+            compact();
+        });
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for the secrets journal to flush");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to close secrets.journal: {}", e.getMessage());
+        }
+    }
+
+    private void enqueue(String line) {
+        pending.add(line);
+        // Group commit: everything queued while a flush is waiting rides along with it
+        if (flushQueued.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::flush);
+            } catch (Exception e) {
+                flushQueued.set(false);
+                logger.error("Secrets journal is closed, 2FA change not persisted");
+            }
+        }
+    }
+
+    private void flush() {
+        flushQueued.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        StringBuilder batch = new StringBuilder();
+        int count = 0;
+        String line;
+        while ((line = pending.poll()) != null) {
+            batch.append(line);
+            count++;
+        }
+
+        if (channel == null) {
+            compact();
+            return;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            entriesSinceCompaction += count;
+            logger.debug("Journaled {} 2FA secret changes", count);
+        } catch (IOException e) {
+            logger.error("Failed to append to secrets.journal, writing snapshot instead: {}", e.getMessage());
+            compact();
+            return;
+        }
+
+        if (entriesSinceCompaction >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Write the live map to secrets.json and truncate the journal.
+     * Runs on the writer thread only.
+     *
+     * @return false if the snapshot could not be written
+     */
+    boolean compact() {
+        Path tempFile = snapshotFile.resolveSibling("secrets.json.tmp");
+        try {
+            int written = 0;
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                JsonWriter json = new JsonWriter(new OutputStreamWriter(Channels.newOutputStream(out), StandardCharsets.UTF_8));
+                json.setIndent("  ");
+                json.beginObject();
+                for (Map.Entry<UUID, String> entry : liveView.get().entrySet()) {
+                    json.name(entry.getKey().toString()).value(entry.getValue());
+                    written++;
+                }
+                json.endObject();
+                json.flush();
+                out.force(true);
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Anything journaled so far is now in the snapshot; replaying it again would be harmless
+            if (channel != null) {
+                channel.truncate(0);
+                channel.force(true);
+            }
+            entriesSinceCompaction = 0;
+            logger.debug("Compacted {} 2FA secrets into secrets.json", written);
+            return true;
+        } catch (Exception e) {
+            logger.error("Failed to save secrets.json: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean applyJournalLine(Map<UUID, String> secrets, String line) {
+        String[] parts = line.split(" ");
+        try {
+            if (parts.length == 3 && parts[0].equals(PUT)) {
+                secrets.put(UUID.fromString(parts[1]), parts[2]);
+                return true;
+            }
+            if (parts.length == 2 && parts[0].equals(REMOVE)) {
+                secrets.remove(UUID.fromString(parts[1]));
+                return true;
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through
+        }
+        return false;
+    }
+}
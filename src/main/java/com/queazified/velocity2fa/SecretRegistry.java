@@ -0,0 +1,68 @@
+package com.queazified.velocity2fa;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory registry of enrolled 2FA secrets.
+ *
+ * Event handlers and command executors read this from Velocity's worker
+ * threads while setup / admin commands write to it, so lookups go through a
+ * ConcurrentHashMap and never block. Anything that wants to iterate gets a
+ * copy rather than a live view. Secrets are held pre-decoded so verification
+ * never touches Base32.
+ */
+public class SecretRegistry {
+
+    private final ConcurrentHashMap<UUID, TotpSecret> secrets = new ConcurrentHashMap<>();
+
+    public TotpSecret get(UUID uuid) {
+        return secrets.get(uuid);
+    }
+
+    public boolean contains(UUID uuid) {
+        return secrets.containsKey(uuid);
+    }
+
+    /**
+     * @return the previous secret, or null if the player was not enrolled
+     */
+    public TotpSecret put(UUID uuid, TotpSecret secret) {
+        return secrets.put(uuid, secret);
+    }
+
+    /**
+     * @return the removed secret, or null if the player was not enrolled
+     */
+    public TotpSecret remove(UUID uuid) {
+        return secrets.remove(uuid);
+    }
+
+    public int size() {
+        return secrets.size();
+    }
+
+    /**
+     * Replace the whole registry, used when loading from disk
+     */
+    public void replaceAll(Map<UUID, TotpSecret> loaded) {
+        secrets.keySet().retainAll(loaded.keySet());
+        secrets.putAll(loaded);
+    }
+
+    /**
+     * Immutable copy of all enrolled UUIDs
+     */
+    public Set<UUID> snapshotUUIDs() {
+        return Set.copyOf(secrets.keySet());
+    }
+
+    /**
+     * Immutable copy of all entries
+     */
+    public Map<UUID, TotpSecret> snapshot() {
+        return Map.copyOf(secrets);
+    }
+}
@@ -0,0 +1,56 @@
+package com.queazified.velocity2fa;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistence backend for 2FA secrets, chosen by {@code Config.storageFormat}
+ * and opened through {@link SecretStores}.
+ *
+ * Secrets are exchanged in their Base32 form. {@link TwoFactorManager}
+ * serializes all writes, but reads can arrive from any thread at any time,
+ * so implementations must be thread-safe. Failures surface as unchecked
+ * exceptions.
+ */
+public interface SecretStore extends AutoCloseable {
+
+    /**
+     * @return true if secrets should be looked up on demand; false if the
+     *         store is small enough to be loaded into memory with
+     *         {@link #forEach} at startup
+     */
+    boolean isLazy();
+
+    /**
+     * @return the secret, or null if the player has none
+     */
+    String get(UUID uuid);
+
+    boolean contains(UUID uuid);
+
+    void put(UUID uuid, String secret);
+
+    /**
+     * Store many secrets as one batch (imports and migrations)
+     */
+    void putAll(Map<UUID, String> secrets);
+
+    /**
+     * @return true if a secret was removed
+     */
+    boolean remove(UUID uuid);
+
+    int size();
+
+    /**
+     * Visit every stored secret
+     */
+    void forEach(BiConsumer<UUID, String> visitor);
+
+    /**
+     * Flush anything pending and release files or connections
+     */
+    @Override
+    void close();
+}
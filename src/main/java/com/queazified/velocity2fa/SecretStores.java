@@ -0,0 +1,170 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Opens {@link SecretStore} backends and moves secrets between them.
+ *
+ * <ul>
+ *   <li>{@code json} - secrets.json + secrets.journal, fully in memory (default)</li>
+ *   <li>{@code mapped} - memory-mapped secrets.bin, looked up lazily</li>
+ *   <li>{@code h2} - embedded H2 database, shareable between proxies on one host</li>
+ * </ul>
+ *
+ * When the configured backend starts out empty, secrets.json or secrets.bin
+ * left in the plugin folder by a previous format are imported automatically
+ * and renamed to {@code *.migrated}. Other moves (including out of h2, whose
+ * file may be shared) go through {@code /2fa-admin migrate}.
+ */
+public final class SecretStores {
+
+    public enum Format {
+        JSON, MAPPED, H2;
+
+        /**
+         * @return the format, or null if the name is not recognised
+         */
+        public static Format fromName(String name) {
+            if (name == null) {
+                return null;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        public String configName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static final int MIGRATION_BATCH_SIZE = 500;
+
+    private SecretStores() {
+    }
+
+    /**
+     * Open the configured backend, importing legacy files into it if it is
+     * empty. There is deliberately no fallback: an empty substitute would
+     * make every staff member look unenrolled and let them past the gate.
+     *
+     * @param sqlDatabase h2 database file without extension
+     * @throws IllegalStateException if the backend can't be opened or read
+     */
+    public static SecretStore open(Format format, Path storagePath, Path sqlDatabase, Logger logger) {
+        SecretStore store;
+        try {
+            store = openRaw(format, storagePath, sqlDatabase, logger);
+        } catch (IOException | SQLException | RuntimeException e) {
+            throw new IllegalStateException("Failed to open " + format.configName() + " secret storage: "
+                + e.getMessage(), e);
+        }
+        if (format != Format.JSON) {
+            logger.info("Using {} secret storage with {} 2FA secrets", format.configName(), store.size());
+        }
+        importLegacy(store, format, storagePath, logger);
+        return store;
+    }
+
+    /**
+     * Open a backend as-is, without importing anything
+     */
+    public static SecretStore openRaw(Format format, Path storagePath, Path sqlDatabase, Logger logger)
+            throws IOException, SQLException {
+        switch (format) {
+            case MAPPED:
+                return new MappedSecretStore(storagePath.resolve("secrets.bin"), logger);
+            case H2:
+                return new SqlSecretStore(sqlDatabase, logger);
+            case JSON:
+            default:
+                return new JsonSecretStore(storagePath, logger);
+        }
+    }
+
+    /**
+     * Copy every secret from one store into another in batches
+     *
+     * @return number of secrets copied
+     */
+    public static int copy(SecretStore from, SecretStore to) {
+        Map<UUID, String> batch = new HashMap<>();
+        int[] copied = {0};
+        from.forEach((uuid, secret) -> {
+            batch.put(uuid, secret);
+            if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                to.putAll(batch);
+                copied[0] += batch.size();
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            to.putAll(batch);
+            copied[0] += batch.size();
+        }
+        return copied[0];
+    }
+
+    /**
+     * Pull secrets.json / secrets.bin from a previous format into an empty store
+     */
+    private static void importLegacy(SecretStore target, Format targetFormat, Path storagePath, Logger logger) {
+        if (target.size() > 0) {
+            return;
+        }
+        for (Format source : new Format[] {Format.JSON, Format.MAPPED}) {
+            if (source == targetFormat || !hasLocalFiles(source, storagePath)) {
+                continue;
+            }
+            try {
+                int imported;
+                try (SecretStore from = openRaw(source, storagePath, null, logger)) {
+                    imported = copy(from, target);
+                }
+                // Keep them as a backup, but out of the way so they are never imported twice
+                if (source == Format.JSON) {
+                    moveAside(storagePath.resolve("secrets.json"));
+                    Files.deleteIfExists(storagePath.resolve("secrets.journal"));
+                } else {
+                    moveAside(storagePath.resolve("secrets.bin"));
+                }
+                logger.info("Imported {} 2FA secrets from {} storage into {}", imported,
+                    source.configName(), targetFormat.configName());
+            } catch (IOException | SQLException | RuntimeException e) {
+                logger.error("Failed to import {} secrets into {}: {}", source.configName(),
+                    targetFormat.configName(), e.getMessage());
+            }
+        }
+    }
+
+    private static boolean hasLocalFiles(Format format, Path storagePath) {
+        try {
+            if (format == Format.JSON) {
+                Path journal = storagePath.resolve("secrets.journal");
+                return Files.exists(storagePath.resolve("secrets.json"))
+                    || (Files.exists(journal) && Files.size(journal) > 0);
+            }
+            return format == Format.MAPPED && Files.exists(storagePath.resolve("secrets.bin"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void moveAside(Path file) throws IOException {
+        if (Files.exists(file)) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.queazified.velocity2fa;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+
+/**
+ * Bulk export and import of enrollments for {@code /2fa-admin export} and
+ * {@code /2fa-admin import}.
+ *
+ * Files are either JSON in the secrets.json layout ({@code {"uuid": "secret"}})
+ * or CSV with one {@code uuid,secret} per line; the extension decides. Both
+ * directions stream: exports never hold more than one entry and imports
+ * never build a JSON tree. Imported entries are validated in chunks on the
+ * common pool while the next chunk is read, with at most
+ * {@link #MAX_CHUNKS_IN_FLIGHT} chunks held at once; each is merged into the
+ * batch as soon as it is done. The batch goes to
+ * {@link TwoFactorManager#importSecrets} whole so the import stays atomic,
+ * which means memory grows with the number of distinct players in the
+ * file (not its size) and a file must fit in the heap that way.
+ */
+public final class SecretTransfer {
+
+    public enum FileFormat {
+        JSON, CSV;
+
+        public static FileFormat forFile(Path file) {
+            return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : JSON;
+        }
+    }
+
+    static final int CHUNK_SIZE = 1000;
+    static final int MAX_CHUNKS_IN_FLIGHT = 4;
+    static final int PROGRESS_INTERVAL = 10_000;
+    static final int MAX_REPORTED_PROBLEMS = 5;
+
+    private SecretTransfer() {
+    }
+
+    /**
+     * Write every enrollment to the file, replacing it atomically. The
+     * secrets are in plain Base32, so the file is created rw------- where
+     * the file system allows it
+     *
+     * @param progress called with the running count every {@link #PROGRESS_INTERVAL} entries
+     * @return number of secrets written
+     */
+    public static long export(TwoFactorManager manager, Path file, LongConsumer progress) throws IOException {
+        FileFormat format = FileFormat.forFile(file);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] written = {0};
+        PrivateFiles.create(temp);
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                if (format == FileFormat.CSV) {
+                    out.write("uuid,secret\n");
+                    manager.forEachSecret((uuid, secret) -> {
+                        try {
+                            out.write(uuid + "," + secret + "\n");
+                        } catch (IOException e) {
+                            throw new TransferException(e);
+                        }
+                        report(++written[0], progress);
+                    });
+                } else {
+                    JsonWriter json = new JsonWriter(out);
+                    json.setIndent("  ");
+                    json.beginObject();
+                    manager.forEachSecret((uuid, secret) -> {
+                        try {
+                            json.name(uuid.toString()).value(secret);
+                        } catch (IOException e) {
+                            throw new TransferException(e);
+                        }
+                        report(++written[0], progress);
+                    });
+                    json.endObject();
+                    json.flush();
+                }
+            } catch (TransferException e) {
+                throw e.getCause();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // A partial export still holds plain secrets
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return written[0];
+    }
+
+    /**
+     * Read, validate and apply an export file
+     *
+     * @param progress called with the running count of entries read
+     * @throws IllegalStateException if the policy is FAIL and an entry
+     *         already exists; nothing is applied then
+     */
+    public static Result importFile(TwoFactorManager manager, Path file, TwoFactorManager.ConflictPolicy policy,
+                                    LongConsumer progress) throws IOException {
+        Deque<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+        Batch batch = new Batch();
+        long read;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ChunkReader chunks = FileFormat.forFile(file) == FileFormat.CSV ? new CsvChunks(in) : new JsonChunks(in);
+            read = 0;
+            List<String[]> chunk;
+            while (!(chunk = chunks.next()).isEmpty()) {
+                List<String[]> rows = chunk;
+                pending.add(CompletableFuture.supplyAsync(() -> validate(rows)));
+                // Merge in file order so later entries for the same player win
+                while (!pending.isEmpty() && (pending.size() > MAX_CHUNKS_IN_FLIGHT || pending.peek().isDone())) {
+                    batch.merge(pending.poll().join());
+                }
+                long before = read;
+                read += rows.size();
+                if (read / PROGRESS_INTERVAL != before / PROGRESS_INTERVAL) {
+                    progress.accept(read);
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            batch.merge(pending.poll().join());
+        }
+
+        TwoFactorManager.ImportResult applied = manager.importSecrets(batch.valid, policy);
+        return new Result(read, batch.invalid, applied, batch.problems);
+    }
+
+    private static Chunk validate(List<String[]> rows) {
+        Chunk chunk = new Chunk();
+        for (String[] row : rows) {
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(row[0].trim());
+            } catch (IllegalArgumentException e) {
+                chunk.reject("not a UUID: " + row[0]);
+                continue;
+            }
+            String encoded = row[1].trim();
+            if (encoded.isEmpty() || encoded.length() > MappedSecretStore.MAX_SECRET_LENGTH) {
+                chunk.reject(uuid + ": secret must be 1-" + MappedSecretStore.MAX_SECRET_LENGTH + " characters");
+                continue;
+            }
+            try {
+                chunk.valid.put(uuid, TotpSecret.fromBase32(encoded));
+            } catch (IllegalArgumentException e) {
+                chunk.reject(uuid + ": " + e.getMessage());
+            }
+        }
+        return chunk;
+    }
+
+    private static void report(long count, LongConsumer progress) {
+        if (count % PROGRESS_INTERVAL == 0) {
+            progress.accept(count);
+        }
+    }
+
+    public static final class Result {
+        public final long read;
+        public final long invalid;
+        public final TwoFactorManager.ImportResult applied;
+        /** The first few invalid entries */
+        public final List<String> problems;
+
+        Result(long read, long invalid, TwoFactorManager.ImportResult applied, List<String> problems) {
+            this.read = read;
+            this.invalid = invalid;
+            this.applied = applied;
+            this.problems = problems;
+        }
+    }
+
+    /**
+     * Everything valid read so far; chunks are dropped once merged
+     */
+    private static final class Batch {
+        final Map<UUID, TotpSecret> valid = new HashMap<>();
+        final List<String> problems = new ArrayList<>();
+        long invalid;
+
+        void merge(Chunk chunk) {
+            valid.putAll(chunk.valid);
+            invalid += chunk.invalid;
+            for (String problem : chunk.problems) {
+                if (problems.size() < MAX_REPORTED_PROBLEMS) {
+                    problems.add(problem);
+                }
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final Map<UUID, TotpSecret> valid = new HashMap<>();
+        final List<String> problems = new ArrayList<>();
+        long invalid;
+
+        void reject(String problem) {
+            invalid++;
+            if (problems.size() < MAX_REPORTED_PROBLEMS) {
+                problems.add(problem);
+            }
+        }
+    }
+
+    /**
+     * Hands out up to {@link #CHUNK_SIZE} raw {uuid, secret} rows at a time
+     */
+    private interface ChunkReader {
+        /** @return the next rows, empty at the end of the file */
+        List<String[]> next() throws IOException;
+    }
+
+    private static final class JsonChunks implements ChunkReader {
+        private final JsonReader json;
+        private boolean started;
+
+        JsonChunks(BufferedReader in) {
+            this.json = new JsonReader(in);
+        }
+
+        @Override
+        public List<String[]> next() throws IOException {
+            if (!started) {
+                json.beginObject();
+                started = true;
+            }
+            List<String[]> rows = new ArrayList<>(CHUNK_SIZE);
+            while (rows.size() < CHUNK_SIZE && json.hasNext()) {
+                String uuid = json.nextName();
+                if (json.peek() != JsonToken.STRING) {
+                    json.skipValue();
+                    rows.add(new String[] {uuid, ""});
+                    continue;
+                }
+                rows.add(new String[] {uuid, json.nextString()});
+            }
+            return rows;
+        }
+    }
+
+    private static final class CsvChunks implements ChunkReader {
+        private final BufferedReader in;
+
+        CsvChunks(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public List<String[]> next() throws IOException {
+            List<String[]> rows = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while (rows.size() < CHUNK_SIZE && (line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.equalsIgnoreCase("uuid,secret")) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                rows.add(comma < 0
+                    ? new String[] {line, ""}
+                    : new String[] {line.substring(0, comma), line.substring(comma + 1)});
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Carries an I/O failure out of a store visitor
+     */
+    private static final class TransferException extends RuntimeException {
+        TransferException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.queazified.velocity2fa;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Authenticated 2FA sessions, keyed by player UUID.
+ *
+ * The connect gate only does a map lookup and a timestamp compare. Eviction
+ * is handled by a hashed timer wheel: every session is also filed under the
+ * wheel slot for its expiry tick, and {@link #sweep()} (run once per tick
+ * from the Velocity scheduler) only walks the one slot that just came due
+ * instead of the whole map.
+ *
+ * With a {@link SessionTransport} attached the store doubles as the near
+ * cache for sessions shared between proxies: {@link #authenticate} and
+ * {@link #invalidate} are published, while {@link #put} and {@link #evict}
+ * apply what other proxies sent. Lookups stay purely local.
+ */
+public class SessionStore {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(12);
+    public static final long TICK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int SLOTS = 64;
+
+    private final Map<UUID, Long> expiries = new ConcurrentHashMap<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Set<UUID>[] wheel = new Set[SLOTS];
+    private long lastSweptTick = -1;
+    private volatile SessionTransport transport;
+    private volatile Listener listener;
+
+    /**
+     * Told about every session started, extended or dropped, wherever it
+     * came from; expiry is -1 when the session was dropped
+     */
+    public interface Listener {
+        void sessionChanged(UUID uuid, long expiry);
+    }
+
+    public SessionStore() {
+        for (int i = 0; i < SLOTS; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Share sessions with other proxies through the transport
+     */
+    public void attach(SessionTransport transport) {
+        this.transport = transport;
+        transport.start(this);
+    }
+
+    /**
+     * Start (or extend) a session for the player
+     *
+     * @return the expiry timestamp in epoch millis
+     */
+    public long authenticate(UUID uuid, long ttlMillis) {
+        long expiry = System.currentTimeMillis() + ttlMillis;
+        put(uuid, expiry);
+        SessionTransport transport = this.transport;
+        if (transport != null) {
+            transport.publishAuthenticated(uuid, expiry);
+        }
+        return expiry;
+    }
+
+    /**
+     * Insert a session with an absolute expiry, e.g. one learned from elsewhere
+     */
+    public void put(UUID uuid, long expiry) {
+        expiries.put(uuid, expiry);
+        wheel[slotFor(expiry)].add(uuid);
+        notify(uuid, expiry);
+    }
+
+    public boolean isAuthenticated(UUID uuid) {
+        return getExpiry(uuid) > 0;
+    }
+
+    /**
+     * @return the expiry timestamp, or -1 if there is no live session
+     */
+    public long getExpiry(UUID uuid) {
+        Long expiry = expiries.get(uuid);
+        if (expiry == null) {
+            return -1;
+        }
+        if (expiry <= System.currentTimeMillis()) {
+            // Lazily drop it; the wheel will clean up its slot entry later
+            expiries.remove(uuid, expiry);
+            return -1;
+        }
+        return expiry;
+    }
+
+    public void invalidate(UUID uuid) {
+        evict(uuid);
+        SessionTransport transport = this.transport;
+        if (transport != null) {
+            transport.publishInvalidated(uuid);
+        }
+    }
+
+    /**
+     * Drop a session without telling other proxies
+     */
+    public void evict(UUID uuid) {
+        expiries.remove(uuid);
+        notify(uuid, -1);
+    }
+
+    /**
+     * Visit every session that has not expired yet
+     */
+    public void forEachLive(BiConsumer<UUID, Long> visitor) {
+        long now = System.currentTimeMillis();
+        expiries.forEach((uuid, expiry) -> {
+            if (expiry > now) {
+                visitor.accept(uuid, expiry);
+            }
+        });
+    }
+
+    /**
+     * Number of sessions, including any that expired since the last sweep
+     */
+    public int size() {
+        return expiries.size();
+    }
+
+    /**
+     * Evict sessions whose slots have come due since the previous sweep
+     *
+     * @return number of sessions evicted
+     */
+    public synchronized int sweep() {
+        long now = System.currentTimeMillis();
+        long currentTick = now / TICK_MILLIS;
+        long fromTick = lastSweptTick < 0 ? currentTick - SLOTS + 1 : lastSweptTick + 1;
+        // A stalled scheduler never needs more than one lap
+        fromTick = Math.max(fromTick, currentTick - SLOTS + 1);
+
+        int evicted = 0;
+        for (long tick = fromTick; tick <= currentTick; tick++) {
+            int slot = (int) Math.floorMod(tick, (long) SLOTS);
+            Iterator<UUID> it = wheel[slot].iterator();
+            while (it.hasNext()) {
+                UUID uuid = it.next();
+                Long expiry = expiries.get(uuid);
+                if (expiry == null) {
+                    it.remove();
+                } else if (expiry <= now) {
+                    if (expiries.remove(uuid, expiry)) {
+                        evicted++;
+                        it.remove();
+                    }
+                    // else it was renewed concurrently; look again next lap
+                } else if (slotFor(expiry) != slot) {
+                    // Session was extended and re-filed under another slot
+                    it.remove();
+                }
+                // Otherwise it is due on a later lap of the wheel
+            }
+        }
+        lastSweptTick = currentTick;
+        return evicted;
+    }
+
+    private void notify(UUID uuid, long expiry) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.sessionChanged(uuid, expiry);
+        }
+    }
+
+    /**
+     * Slot of the first tick boundary at or after the expiry, so that a
+     * sweep of that slot always finds the session already expired
+     */
+    private static int slotFor(long expiry) {
+        long tick = (expiry + TICK_MILLIS - 1) / TICK_MILLIS;
+        return (int) Math.floorMod(tick, (long) SLOTS);
+    }
+}
@@ -0,0 +1,28 @@
+package com.queazified.velocity2fa;
+
+import java.util.UUID;
+
+/**
+ * Carries session changes between proxies so a staff member who has
+ * authenticated on one proxy is recognised on the others.
+ *
+ * Every proxy keeps its own {@link SessionStore} as a near cache and the
+ * transport pushes changes into it in the background, so the connect gate
+ * never waits on another proxy. Implementations must not block callers for
+ * long: publishes happen on command completion paths.
+ */
+public interface SessionTransport extends AutoCloseable {
+
+    /**
+     * Begin applying other proxies' events to the local store. Called once,
+     * after the store has been created.
+     */
+    void start(SessionStore sessions);
+
+    void publishAuthenticated(UUID uuid, long expiry);
+
+    void publishInvalidated(UUID uuid);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,298 @@
+package com.queazified.velocity2fa;
+
+import org.slf4j.Logger;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Secrets in an embedded H2 database file.
+ *
+ * The database is opened with {@code AUTO_SERVER=TRUE}, so several proxies
+ * on the same host (or a shared filesystem) can point {@code sqlDatabase}
+ * at one file and see the same enrollments. Lookups are by primary key.
+ * Each pooled connection keeps its prepared statements, and
+ * {@link #putAll} writes in batches inside a single transaction.
+ */
+public class SqlSecretStore implements SecretStore {
+
+    static final int POOL_SIZE = 4;
+    static final int BATCH_SIZE = 500;
+    static final long BORROW_TIMEOUT_SECONDS = 5;
+
+    private static final String TABLE = "velocity2fa_secrets";
+    private static final String SELECT_SECRET = "SELECT secret FROM " + TABLE + " WHERE uuid = ?";
+    private static final String SELECT_EXISTS = "SELECT 1 FROM " + TABLE + " WHERE uuid = ?";
+    private static final String UPSERT = "MERGE INTO " + TABLE + " (uuid, secret, updated_at) KEY (uuid) VALUES (?, ?, ?)";
+    private static final String DELETE = "DELETE FROM " + TABLE + " WHERE uuid = ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM " + TABLE;
+    private static final String SELECT_ALL = "SELECT uuid, secret FROM " + TABLE;
+
+    private final String url;
+    private final Driver driver;
+    private final Logger logger;
+    private final BlockingQueue<PooledConnection> idle = new ArrayBlockingQueue<>(POOL_SIZE);
+    private volatile boolean closed;
+
+    /**
+     * @param database database file without the {@code .mv.db} extension
+     */
+    public SqlSecretStore(Path database, Logger logger) throws SQLException {
+        this.url = "jdbc:h2:file:" + database.toAbsolutePath() + ";AUTO_SERVER=TRUE";
+        this.logger = logger;
+        this.driver = loadDriver();
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            idle.add(new PooledConnection(connect()));
+        }
+        withConnection(pooled -> {
+            try (Statement statement = pooled.connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + "uuid UUID NOT NULL PRIMARY KEY, "
+                    + "secret VARCHAR(" + MappedSecretStore.MAX_VALUE_LENGTH + ") NOT NULL, "
+                    + "updated_at BIGINT NOT NULL)");
+                // Tables from before encryption only fit 64-character Base32
+                try (ResultSet result = statement.executeQuery("SELECT CHARACTER_MAXIMUM_LENGTH FROM INFORMATION_SCHEMA.COLUMNS "
+                        + "WHERE TABLE_NAME = '" + TABLE.toUpperCase(Locale.ROOT) + "' AND COLUMN_NAME = 'SECRET'")) {
+                    if (result.next() && result.getLong(1) < MappedSecretStore.MAX_VALUE_LENGTH) {
+                        statement.execute("ALTER TABLE " + TABLE + " ALTER COLUMN secret SET DATA TYPE VARCHAR("
+                            + MappedSecretStore.MAX_VALUE_LENGTH + ")");
+                        logger.info("Widened the h2 secret column to {} characters", MappedSecretStore.MAX_VALUE_LENGTH);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isLazy() {
+        return true;
+    }
+
+    @Override
+    public String get(UUID uuid) {
+        return withConnection(pooled -> {
+            PreparedStatement statement = pooled.prepare(SELECT_SECRET);
+            statement.setObject(1, uuid);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getString(1) : null;
+            }
+        });
+    }
+
+    @Override
+    public boolean contains(UUID uuid) {
+        return withConnection(pooled -> {
+            PreparedStatement statement = pooled.prepare(SELECT_EXISTS);
+            statement.setObject(1, uuid);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
+            }
+        });
+    }
+
+    @Override
+    public void put(UUID uuid, String secret) {
+        withConnection(pooled -> {
+            PreparedStatement statement = pooled.prepare(UPSERT);
+            statement.setObject(1, uuid);
+            statement.setString(2, secret);
+            statement.setLong(3, System.currentTimeMillis());
+            statement.executeUpdate();
+            return null;
+        });
+    }
+
+    @Override
+    public void putAll(Map<UUID, String> secrets) {
+        withConnection(pooled -> {
+            Connection connection = pooled.connection;
+            PreparedStatement statement = pooled.prepare(UPSERT);
+            long now = System.currentTimeMillis();
+            connection.setAutoCommit(false);
+            try {
+                int batched = 0;
+                Iterator<Map.Entry<UUID, String>> entries = secrets.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<UUID, String> entry = entries.next();
+                    statement.setObject(1, entry.getKey());
+                    statement.setString(2, entry.getValue());
+                    statement.setLong(3, now);
+                    statement.addBatch();
+                    if (++batched == BATCH_SIZE || !entries.hasNext()) {
+                        statement.executeBatch();
+                        batched = 0;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean remove(UUID uuid) {
+        return withConnection(pooled -> {
+            PreparedStatement statement = pooled.prepare(DELETE);
+            statement.setObject(1, uuid);
+            return statement.executeUpdate() > 0;
+        });
+    }
+
+    @Override
+    public int size() {
+        return withConnection(pooled -> {
+            try (ResultSet result = pooled.prepare(COUNT).executeQuery()) {
+                return result.next() ? result.getInt(1) : 0;
+            }
+        });
+    }
+
+    @Override
+    public void forEach(BiConsumer<UUID, String> visitor) {
+        withConnection(pooled -> {
+            PreparedStatement statement = pooled.prepare(SELECT_ALL);
+            statement.setFetchSize(BATCH_SIZE);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    visitor.accept(result.getObject(1, UUID.class), result.getString(2));
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            pooled.close();
+        }
+    }
+
+    private <T> T withConnection(SqlWork<T> work) {
+        if (closed) {
+            throw new IllegalStateException("Secret database is closed");
+        }
+        PooledConnection pooled;
+        try {
+            pooled = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a database connection", e);
+        }
+        if (pooled == null) {
+            throw new IllegalStateException("Timed out waiting for a database connection");
+        }
+
+        boolean broken = false;
+        try {
+            return work.run(pooled);
+        } catch (SQLException e) {
+            broken = !pooled.isValid();
+            throw new IllegalStateException("Secret database error: " + e.getMessage(), e);
+        } finally {
+            release(pooled, broken);
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        if (closed) {
+            pooled.close();
+            return;
+        }
+        if (broken) {
+            pooled.close();
+            try {
+                pooled = new PooledConnection(connect());
+            } catch (SQLException e) {
+                // The pool shrinks by one until the next restart
+                logger.error("Failed to replace a broken database connection: {}", e.getMessage());
+                return;
+            }
+        }
+        idle.offer(pooled);
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = driver.connect(url, new Properties());
+        if (connection == null) {
+            throw new SQLException("H2 driver rejected " + url);
+        }
+        return connection;
+    }
+
+    /**
+     * Instantiated directly rather than through DriverManager, which can't
+     * see drivers loaded by a plugin class loader
+     */
+    private static Driver loadDriver() throws SQLException {
+        try {
+            Class<?> driverClass = Class.forName("org.h2.Driver", true, SqlSecretStore.class.getClassLoader());
+            return (Driver) driverClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("H2 driver is not available", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run(PooledConnection pooled) throws SQLException;
+    }
+
+    private final class PooledConnection {
+        final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        boolean isValid() {
+            try {
+                return connection.isValid(1);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Failed to close database connection: {}", e.getMessage());
+            }
+        }
+    }
+}
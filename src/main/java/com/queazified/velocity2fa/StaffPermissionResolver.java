@@ -0,0 +1,99 @@
+package com.queazified.velocity2fa;
+
+import com.velocitypowered.api.proxy.Player;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a player counts as staff for 2FA purposes, based on
+ * {@code Config.staffPermissions}.
+ *
+ * Permission plugins like LuckPerms can make {@code hasPermission} fairly
+ * expensive and it is asked on every server connect, so the answer is
+ * cached per player. Velocity has no generic "permissions changed" event,
+ * so entries also expire after {@link #CACHE_TTL_MILLIS} to pick up rank
+ * changes made through a permission plugin.
+ */
+public class StaffPermissionResolver {
+
+    static final long CACHE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<UUID, CachedResult> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile String[] permissions;
+
+    public StaffPermissionResolver(List<String> staffPermissions) {
+        this.permissions = toArray(staffPermissions);
+    }
+
+    public boolean isStaff(Player player) {
+        long now = System.currentTimeMillis();
+        CachedResult cached = cache.get(player.getUniqueId());
+        if (cached != null && cached.expiresAt > now) {
+            hits.increment();
+            return cached.staff;
+        }
+
+        misses.increment();
+        boolean staff = resolve(player);
+        cache.put(player.getUniqueId(), new CachedResult(staff, now + CACHE_TTL_MILLIS));
+        return staff;
+    }
+
+    /**
+     * Forget the cached answer for one player (disconnect, permission setup)
+     */
+    public void invalidate(UUID uuid) {
+        cache.remove(uuid);
+    }
+
+    /**
+     * Swap in a new permission list and drop every cached answer
+     */
+    public void reload(List<String> staffPermissions) {
+        this.permissions = toArray(staffPermissions);
+        cache.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getCachedPlayers() {
+        return cache.size();
+    }
+
+    private boolean resolve(Player player) {
+        for (String permission : permissions) {
+            if (player.hasPermission(permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] toArray(List<String> staffPermissions) {
+        // Already trimmed, de-duplicated and non-empty (see ConfigSnapshot)
+        return staffPermissions.toArray(new String[0]);
+    }
+
+    private static final class CachedResult {
+        final boolean staff;
+        final long expiresAt;
+
+        CachedResult(boolean staff, long expiresAt) {
+            this.staff = staff;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
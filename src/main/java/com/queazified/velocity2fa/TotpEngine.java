@@ -0,0 +1,326 @@
+package com.queazified.velocity2fa;
+
+import javax.crypto.Mac;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RFC 6238 TOTP verification. Window, time step, digits and HMAC algorithm
+ * come from config and can be swapped at any time with {@link #reconfigure};
+ * the verify path just reads the current {@link Settings}.
+ *
+ * {@link Mac} instances and scratch buffers are borrowed from a small
+ * shared pool, and secrets arrive already decoded as {@link TotpSecret}, so
+ * the only per-call work is one {@code Mac.init} followed by one HMAC per
+ * time step tried. Steps are tried starting from the player's last observed clock
+ * drift, so a correct code usually costs a single HMAC.
+ */
+public final class TotpEngine {
+
+    public enum Algorithm {
+        SHA1("HmacSHA1"), SHA256("HmacSHA256"), SHA512("HmacSHA512");
+
+        final String macName;
+
+        Algorithm(String macName) {
+            this.macName = macName;
+        }
+
+        /**
+         * @return the algorithm, or null if the name is not recognised
+         */
+        public static Algorithm fromName(String name) {
+            if (name == null) {
+                return null;
+            }
+            String normalized = name.trim().toUpperCase(Locale.ROOT).replace("-", "").replace("HMAC", "");
+            for (Algorithm algorithm : values()) {
+                if (algorithm.name().equals(normalized)) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final int TIME_STEP_SECONDS = 30;
+    static final int DIGITS = 6;
+    static final int MAX_WINDOW = 21;
+
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+
+    // Pooled rather than per thread: verification runs on virtual threads, which
+    // would build a fresh Mac for every call through a ThreadLocal
+    private static final ScratchPool SCRATCH = new ScratchPool(
+        Math.max(8, Math.min(64, 2 * Runtime.getRuntime().availableProcessors())));
+
+    private volatile Settings settings;
+
+    /**
+     * @param windowSize number of time steps to accept, centered on the
+     *                   current one (3 allows one step of drift either way)
+     */
+    public TotpEngine(int windowSize) {
+        this(windowSize, TIME_STEP_SECONDS, DIGITS, Algorithm.SHA1);
+    }
+
+    public TotpEngine(int windowSize, int timeStepSeconds, int digits, Algorithm algorithm) {
+        this.settings = new Settings(windowSize, timeStepSeconds, digits, algorithm);
+    }
+
+    /**
+     * Swap in new parameters; verifications already running finish with the
+     * old ones. Out of range values are clamped.
+     *
+     * @return true if the time step length changed, which makes previously
+     *         recorded step numbers meaningless
+     */
+    public boolean reconfigure(int windowSize, int timeStepSeconds, int digits, Algorithm algorithm) {
+        Settings previous = settings;
+        settings = new Settings(windowSize, timeStepSeconds, digits, algorithm);
+        return previous.timeStepSeconds != settings.timeStepSeconds;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Verify a code typed by a player. Returns false for anything that is
+     * not exactly the configured number of ASCII digits.
+     */
+    public boolean verify(TotpSecret secret, CharSequence code, long timeMillis) {
+        Settings current = settings;
+        int expected = parseCode(code, current.digits);
+        if (expected < 0) {
+            return false;
+        }
+        long step = match(current, secret, expected, timeMillis);
+        if (step < 0) {
+            return false;
+        }
+        accept(current, secret, step, timeMillis);
+        return true;
+    }
+
+    /**
+     * Find the time step a code belongs to, trying the player's learned
+     * drift first and stopping at the first match. Nothing is learned here:
+     * call {@link #accept} once the code has passed every other check, so a
+     * replayed or otherwise rejected code can't move the drift.
+     *
+     * @return the matching time step, or -1 if the code is wrong
+     */
+    public long match(Settings current, TotpSecret secret, int code, long timeMillis) {
+        Scratch scratch = SCRATCH.acquire();
+        try {
+            return match(scratch, current, secret, code, timeMillis);
+        } finally {
+            SCRATCH.release(scratch);
+        }
+    }
+
+    private static long match(Scratch scratch, Settings current, TotpSecret secret, int code, long timeMillis) {
+        Mac mac = scratch.mac(current.algorithm);
+        try {
+            mac.init(secret.key());
+        } catch (InvalidKeyException e) {
+            return -1;
+        }
+
+        long now = current.stepAt(timeMillis);
+        int reach = current.reach;
+        int drift = Math.max(-reach, Math.min(reach, secret.drift()));
+        // doFinal() resets the Mac to the same key, so the loop never re-inits
+        for (int distance = 0; distance <= 2 * reach; distance++) {
+            for (int sign = 1; sign >= -1; sign -= 2) {
+                int offset = drift + sign * distance;
+                if (offset < -reach || offset > reach || (distance == 0 && sign < 0)) {
+                    continue;
+                }
+                if (compute(mac, scratch, now + offset, current.modulus) == code) {
+                    return now + offset;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remember the drift of an accepted code, so the next match starts there
+     *
+     * @param step the step returned by {@link #match} for this time
+     */
+    public void accept(Settings current, TotpSecret secret, long step, long timeMillis) {
+        long offset = step - current.stepAt(timeMillis);
+        secret.learnDrift((int) Math.max(-current.reach, Math.min(current.reach, offset)));
+    }
+
+    /**
+     * Code for an explicit time step with the default SHA1 / 6 digits
+     * (used for RFC 6238 vectors and tooling)
+     */
+    public static int generate(TotpSecret secret, long timeStep) {
+        return generate(secret, timeStep, Algorithm.SHA1, DIGITS);
+    }
+
+    public static int generate(TotpSecret secret, long timeStep, Algorithm algorithm, int digits) {
+        Scratch scratch = SCRATCH.acquire();
+        try {
+            Mac mac = scratch.mac(algorithm);
+            try {
+                mac.init(secret.key());
+            } catch (InvalidKeyException e) {
+                throw new IllegalArgumentException("Invalid TOTP key", e);
+            }
+            return compute(mac, scratch, timeStep, POWERS_OF_TEN[clampDigits(digits)]);
+        } finally {
+            SCRATCH.release(scratch);
+        }
+    }
+
+    /**
+     * Parse a code of exactly {@code digits} digits without allocating.
+     *
+     * @return the code, or -1 if it is malformed
+     */
+    static int parseCode(CharSequence code, int digits) {
+        if (code == null || code.length() != digits) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < digits; i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int compute(Mac mac, Scratch scratch, long timeStep, int modulus) {
+        byte[] counter = scratch.counter;
+        for (int i = 7; i >= 0; i--) {
+            counter[i] = (byte) timeStep;
+            timeStep >>>= 8;
+        }
+        mac.update(counter, 0, counter.length);
+        byte[] hash = scratch.hash;
+        try {
+            mac.doFinal(hash, 0);
+        } catch (Exception e) {
+            throw new IllegalStateException("HMAC output buffer too small", e);
+        }
+
+        int offset = hash[mac.getMacLength() - 1] & 0x0F;
+        int binary = ((hash[offset] & 0x7F) << 24)
+            | ((hash[offset + 1] & 0xFF) << 16)
+            | ((hash[offset + 2] & 0xFF) << 8)
+            | (hash[offset + 3] & 0xFF);
+        return binary % modulus;
+    }
+
+    private static int clampDigits(int digits) {
+        return Math.max(6, Math.min(8, digits));
+    }
+
+    /**
+     * One immutable set of verification parameters
+     */
+    public static final class Settings {
+        public final int windowSize;
+        public final int timeStepSeconds;
+        public final int digits;
+        public final Algorithm algorithm;
+        final int reach;
+        final int modulus;
+
+        Settings(int windowSize, int timeStepSeconds, int digits, Algorithm algorithm) {
+            this.windowSize = Math.max(1, Math.min(MAX_WINDOW, windowSize));
+            this.timeStepSeconds = Math.max(1, timeStepSeconds);
+            this.digits = clampDigits(digits);
+            this.algorithm = algorithm == null ? Algorithm.SHA1 : algorithm;
+            this.reach = (this.windowSize - 1) / 2;
+            this.modulus = POWERS_OF_TEN[this.digits];
+        }
+
+        public long stepAt(long timeMillis) {
+            return Math.floorDiv(timeMillis / 1000L, timeStepSeconds);
+        }
+
+        /**
+         * Oldest step still inside the window at this time
+         */
+        public long oldestStepAt(long timeMillis) {
+            return stepAt(timeMillis) - reach;
+        }
+
+        public boolean isDefault() {
+            return timeStepSeconds == TIME_STEP_SECONDS && digits == DIGITS && algorithm == Algorithm.SHA1;
+        }
+    }
+
+    private static final class Scratch {
+        final Mac[] macs = new Mac[Algorithm.values().length];
+        final byte[] counter = new byte[8];
+        // Large enough for HMAC-SHA512
+        final byte[] hash = new byte[64];
+
+        Mac mac(Algorithm algorithm) {
+            Mac mac = macs[algorithm.ordinal()];
+            if (mac == null) {
+                try {
+                    mac = Mac.getInstance(algorithm.macName);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(algorithm.macName + " is not available", e);
+                }
+                macs[algorithm.ordinal()] = mac;
+            }
+            return mac;
+        }
+    }
+
+    /**
+     * Fixed set of slots holding idle {@link Scratch} instances. Borrowing
+     * and returning are one atomic swap each, starting from a slot picked by
+     * thread id so concurrent callers rarely collide. When every slot is
+     * empty a new instance is made, and returning to a full pool drops it,
+     * so the pool settles at the peak number of concurrent verifications.
+     */
+    static final class ScratchPool {
+        private final AtomicReferenceArray<Scratch> slots;
+
+        ScratchPool(int size) {
+            this.slots = new AtomicReferenceArray<>(size);
+        }
+
+        Scratch acquire() {
+            int size = slots.length();
+            int start = home(size);
+            for (int i = 0; i < size; i++) {
+                Scratch scratch = slots.getAndSet((start + i) % size, null);
+                if (scratch != null) {
+                    return scratch;
+                }
+            }
+            return new Scratch();
+        }
+
+        void release(Scratch scratch) {
+            int size = slots.length();
+            int start = home(size);
+            for (int i = 0; i < size; i++) {
+                if (slots.compareAndSet((start + i) % size, null, scratch)) {
+                    return;
+                }
+            }
+        }
+
+        private static int home(int size) {
+            return (int) Math.floorMod(Thread.currentThread().threadId(), (long) size);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.queazified.velocity2fa;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A TOTP shared secret, decoded from Base32 exactly once.
+ *
+ * The registry stores these instead of raw strings so the verify path can
+ * hand the cached key straight to the HMAC without re-decoding it. The key
+ * is tagged HmacSHA1 but the raw bytes work with any configured HMAC.
+ */
+public final class TotpSecret {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+    private static final int[] DECODE = new int[128];
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            DECODE[ALPHABET.charAt(i)] = i;
+            DECODE[Character.toLowerCase(ALPHABET.charAt(i))] = i;
+        }
+    }
+
+    private final String encoded;
+    private final SecretKeySpec key;
+    // Offset (in time steps) of this player's last accepted code; not persisted
+    private volatile int drift;
+
+    private TotpSecret(String encoded, byte[] raw) {
+        this.encoded = encoded;
+        this.key = new SecretKeySpec(raw, "HmacSHA1");
+    }
+
+    /**
+     * Parse a Base32 secret as stored in secrets.json
+     *
+     * @throws IllegalArgumentException if the string is not valid Base32
+     */
+    public static TotpSecret fromBase32(String encoded) {
+        return new TotpSecret(encoded, decodeBase32(encoded));
+    }
+
+    /**
+     * Generate a new random 160-bit secret (RFC 4226 recommended length)
+     */
+    public static TotpSecret generate() {
+        byte[] raw = new byte[20];
+        RANDOM.nextBytes(raw);
+        return new TotpSecret(encodeBase32(raw), raw);
+    }
+
+    /**
+     * Base32 form, as shown to players and written to disk
+     */
+    public String encoded() {
+        return encoded;
+    }
+
+    SecretKeySpec key() {
+        return key;
+    }
+
+    int drift() {
+        return drift;
+    }
+
+    void learnDrift(int offset) {
+        // Skip the volatile write in the common case of an unchanged drift
+        if (drift != offset) {
+            drift = offset;
+        }
+    }
+
+    @Override
+    public String toString() {
+        // Never leak the secret into logs
+        return "TotpSecret[hidden]";
+    }
+
+    static byte[] decodeBase32(String input) {
+        if (input == null) {
+            throw new IllegalArgumentException("Secret is null");
+        }
+        byte[] out = new byte[input.length() * 5 / 8];
+        int buffer = 0;
+        int bits = 0;
+        int length = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '=' || c == ' ' || c == '-') {
+                continue;
+            }
+            int value = c < 128 ? DECODE[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid Base32 character: " + c);
+            }
+            buffer = (buffer << 5) | value;
+            bits += 5;
+            if (bits >= 8) {
+                out[length++] = (byte) (buffer >>> (bits - 8));
+                bits -= 8;
+            }
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("Secret is empty");
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    static String encodeBase32(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length * 8 + 4) / 5);
+        int buffer = 0;
+        int bits = 0;
+        for (byte b : data) {
+            buffer = (buffer << 8) | (b & 0xFF);
+            bits += 8;
+            while (bits >= 5) {
+                sb.append(ALPHABET.charAt((buffer >>> (bits - 5)) & 31));
+                bits -= 5;
+            }
+        }
+        if (bits > 0) {
+            sb.append(ALPHABET.charAt((buffer << (5 - bits)) & 31));
+        }
+        return sb.toString();
+    }
+}
@@ -4,9 +4,9 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.event.ClickEvent;
-import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.JoinConfiguration;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -24,8 +24,7 @@ public class TwoFactorCommand implements SimpleCommand {
         String[] args = invocation.arguments();
 
         if (!(source instanceof Player)) {
-            source.sendMessage(Component.text("Only players can use this command!")
-                .color(NamedTextColor.RED));
+            source.sendMessage(messages().playersOnly);
             return;
         }
 
@@ -43,8 +42,7 @@ public class TwoFactorCommand implements SimpleCommand {
             case "verify":
             case "auth":
                 if (args.length < 2) {
-                    player.sendMessage(Component.text("Usage: /2fa verify <code>")
-                        .color(NamedTextColor.RED));
+                    player.sendMessage(messages().verifyUsage);
                     return;
                 }
                 verifyCode(player, args[1]);
@@ -55,6 +53,9 @@ public class TwoFactorCommand implements SimpleCommand {
             case "status":
                 showStatus(player);
                 break;
+            case "recovery":
+                reissueRecoveryCodes(player);
+                break;
             default:
                 // Assume it's a verification code
                 verifyCode(player, args[0]);
@@ -63,26 +64,18 @@ public class TwoFactorCommand implements SimpleCommand {
     }
 
     private void showHelp(Player player) {
-        player.sendMessage(Component.text("=== Velocity2FA Commands ===")
-            .color(NamedTextColor.GOLD));
-        player.sendMessage(Component.text("/2fa setup - Set up 2FA for your account")
-            .color(NamedTextColor.YELLOW));
-        player.sendMessage(Component.text("/2fa <code> - Verify your 2FA code")
-            .color(NamedTextColor.YELLOW));
-        player.sendMessage(Component.text("/2fa verify <code> - Verify your 2FA code")
-            .color(NamedTextColor.YELLOW));
-        player.sendMessage(Component.text("/2fa disable - Disable 2FA (requires current code)")
-            .color(NamedTextColor.YELLOW));
-        player.sendMessage(Component.text("/2fa status - Check your 2FA status")
-            .color(NamedTextColor.YELLOW));
+        player.sendMessage(messages().help);
+    }
+
+    private MessageCatalog messages() {
+        return plugin.getConfigManager().getConfig().messages;
     }
 
     private void setupTwoFactor(Player player) {
         // Check if player has staff permission
-        if (!hasStaffPermission(player)) {
+        if (!plugin.getStaffPermissions().isStaff(player)) {
             try {
-                player.sendMessage(Component.text("You don't have permission to use 2FA!")
-                    .color(NamedTextColor.RED));
+                player.sendMessage(messages().noPermission);
             } catch (Exception e) {
                 // Ignore system chat errors
             }
@@ -91,119 +84,192 @@ public class TwoFactorCommand implements SimpleCommand {
 
         if (plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId())) {
             try {
-                player.sendMessage(Component.text("You already have 2FA enabled! Use /2fa disable to remove it.")
-                    .color(NamedTextColor.RED));
+                player.sendMessage(messages().alreadyEnabled);
             } catch (Exception e) {
                 // Ignore system chat errors
             }
             return;
         }
 
-        String secretKey = plugin.getTwoFactorManager().generateSecretKey(player.getUniqueId());
-        String qrUrl = plugin.getTwoFactorManager().generateQRUrl(player.getUsername(), secretKey);
+        // Nothing is stored until the first code confirms the secret; QR rendering runs off the command thread
+        CompletableFuture.supplyAsync(() -> plugin.getTwoFactorManager().beginEnrollment(player.getUniqueId()),
+                plugin.getExecutor()).thenCompose(secretKey -> {
+            String qrUrl = plugin.getTwoFactorManager().generateQRUrl(player.getUsername(), secretKey);
+            Component setup = messages().setup(secretKey);
+            Path imageDirectory = plugin.getConfigManager().getConfig().qrImageDirectory;
+            return plugin.getQrCodes().render(player.getUniqueId(), qrUrl,
+                    imageDirectory != null ? plugin.getDataDirectory().resolve(imageDirectory) : null)
+                .handle((qr, e) -> {
+                    if (e != null) {
+                        // The secret can still be typed in by hand
+                        plugin.getLogger().warn("Failed to render 2FA QR code for {}: {}", player.getUsername(), e.getMessage());
+                        return setup;
+                    }
+                    // The whole setup text goes out as one message
+                    return Component.join(JoinConfiguration.newlines(), qr.chat, setup);
+                });
+        }).thenAccept(setup -> sendSafely(player, setup))
+            .exceptionally(e -> {
+                plugin.getLogger().error("2FA setup failed for {}: {}", player.getUsername(), e.getMessage());
+                sendSafely(player, messages().setupFailed);
+                return null;
+            });
+    }
 
-        if (player.isActive()) {
-            try {
-                player.sendMessage(Component.text("=== 2FA Setup ===")
-                    .color(NamedTextColor.GOLD));
-                Thread.sleep(100);
-                player.sendMessage(Component.text("1. Install an authenticator app (Google Authenticator, Microsoft Authenticator, etc.)")
-                    .color(NamedTextColor.YELLOW));
-                Thread.sleep(100);
-                player.sendMessage(Component.text("2. Enter the secret manually into your Authenticator:")
-                    .color(NamedTextColor.YELLOW));
-                Thread.sleep(100);
-                player.sendMessage(Component.text("Secret Key: " + secretKey)
-                    .color(NamedTextColor.GREEN));
-                Thread.sleep(100);
-                //player.sendMessage(Component.text("QR Code: Click here to open")
-                //    .color(NamedTextColor.AQUA)
-                //    .clickEvent(ClickEvent.openUrl(qrUrl)));
-                Thread.sleep(100);
-                player.sendMessage(Component.text("3. After setup, use /2fa <code> to verify and complete setup")
-                    .color(NamedTextColor.YELLOW));
-            } catch (Exception e) {
-                // Ignore system chat errors
+    private void verifyCode(Player player, String code) {
+        boolean enrolling = !plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId());
+        if (enrolling && !plugin.getTwoFactorManager().hasPendingEnrollment(player.getUniqueId())) {
+            player.sendMessage(messages().not2FA);
+            return;
+        }
+
+        // Throttled attempts are rejected before any crypto or logging happens
+        AuthThrottle throttle = plugin.getAuthThrottle();
+        String address = addressOf(player);
+        AuthThrottle.Decision decision = throttle.tryAcquire(player.getUniqueId(), address);
+        if (decision != AuthThrottle.Decision.ALLOWED) {
+            rejectThrottled(player, decision);
+            return;
+        }
+
+        // Recovery codes take their own path and never reach the TOTP engine
+        boolean recovery = !enrolling && RecoveryCodes.looksLikeCode(code);
+        CompletableFuture.supplyAsync(() -> recovery
+                    ? plugin.getTwoFactorManager().useRecoveryCode(player.getUniqueId(), code)
+                    : plugin.getTwoFactorManager().verifyCode(player.getUniqueId(), code),
+                plugin.getExecutor())
+            .thenAccept(valid -> {
+                if (valid) {
+                    throttle.recordSuccess(player.getUniqueId(), address);
+                    if (enrolling) {
+                        // The first code confirmed the pending secret, which is now stored
+                        plugin.getRoster().setTwoFactor(player.getUniqueId(), true);
+                        plugin.getAuthStates().setHasSecret(player.getUniqueId(), true);
+                        // The setup QR code (and its PNG) holds the secret and isn't needed any more
+                        plugin.getQrCodes().invalidate(player.getUniqueId());
+                        plugin.getLogger().info("Player {} enabled 2FA", player.getUsername());
+                    }
+                    // Session expiry: 12h (can be made configurable)
+                    plugin.getSessionStore().authenticate(player.getUniqueId(), SessionStore.DEFAULT_TTL_MILLIS);
+                    plugin.getPendingAuthentication().remove(player.getUniqueId());
+
+                    if (enrolling) {
+                        plugin.getTwoFactorManager().issueRecoveryCodes(player.getUniqueId()).handle((codes, e) -> {
+                            if (e != null) {
+                                plugin.getLogger().error("Failed to save recovery codes for {}: {}",
+                                    player.getUsername(), e.getMessage());
+                            }
+                            sendSafely(player, Component.join(JoinConfiguration.newlines(), messages().setupComplete,
+                                e != null ? messages().recoveryCodesFailed : messages().recoveryCodes(codes)));
+                            return null;
+                        });
+                    } else if (recovery) {
+                        int left = plugin.getTwoFactorManager().getRecoveryCodesLeft(player.getUniqueId());
+                        sendSafely(player, messages().recoveryCodeUsed(left));
+                        plugin.getLogger().warn("Player {} used a 2FA recovery code, {} left", player.getUsername(), left);
+                    } else {
+                        sendSafely(player, messages().authSuccess);
+                    }
+
+                    plugin.getLogger().info("Player {} successfully authenticated with 2FA", player.getUsername());
+                } else {
+                    boolean lockedOut = throttle.recordFailure(player.getUniqueId(), address);
+                    plugin.getLogger().warn("Player {} failed 2FA authentication", player.getUsername());
+
+                    if (lockedOut && plugin.getConfigManager().getConfig().kickOnFailedAuth) {
+                        player.disconnect(messages().tooManyFailures);
+                    } else if (lockedOut) {
+                        sendSafely(player, messages().lockedOut(secondsLeft(throttle, player)));
+                    } else {
+                        sendSafely(player, messages().authFailed);
+                    }
+                }
+            })
+            .exceptionally(e -> {
+                plugin.getLogger().error("2FA verification failed for {}: {}", player.getUsername(), e.getMessage());
+                return null;
+            });
+    }
+
+    private void rejectThrottled(Player player, AuthThrottle.Decision decision) {
+        if (decision == AuthThrottle.Decision.LOCKED_OUT) {
+            if (plugin.getConfigManager().getConfig().kickOnFailedAuth) {
+                player.disconnect(messages().tooManyFailures);
+                return;
             }
+            sendSafely(player, messages().lockedOut(secondsLeft(plugin.getAuthThrottle(), player)));
+        } else {
+            sendSafely(player, messages().tooFast);
         }
     }
 
-    private void verifyCode(Player player, String code) {
-        if (!plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId())) {
-            player.sendMessage(Component.text("You don't have 2FA set up! Use /2fa setup first.")
-                .color(NamedTextColor.RED));
+    private static long secondsLeft(AuthThrottle throttle, Player player) {
+        return Math.max(1, (throttle.getLockoutRemaining(player.getUniqueId()) + 999) / 1000);
+    }
+
+    private static String addressOf(Player player) {
+        return player.getRemoteAddress() == null ? null : player.getRemoteAddress().getHostString();
+    }
+
+    private void sendSafely(Player player, Component message) {
+        if (!player.isActive()) {
             return;
         }
+        try {
+            player.sendMessage(message);
+        } catch (Exception e) {
+            // Ignore system chat errors
+        }
+    }
 
-        boolean valid = plugin.getTwoFactorManager().verifyCode(player.getUniqueId(), code);
-        
-        if (valid) {
-            // Session expiry: 12h (can be made configurable)
-            long expiry = System.currentTimeMillis() + 12 * 60 * 60 * 1000L;
-            plugin.getAuthenticatedPlayers().put(player.getUsername(), expiry);
-            plugin.getPendingAuthentication().remove(player.getUsername());
-            
-            player.sendMessage(Component.text("2FA verification successful! You can now access servers.")
-                .color(NamedTextColor.GREEN));
-            
-            plugin.getLogger().info("Player {} successfully authenticated with 2FA", player.getUsername());
-        } else {
-            player.sendMessage(Component.text("Invalid 2FA code! Please try again.")
-                .color(NamedTextColor.RED));
-            
-            plugin.getLogger().warn("Player {} failed 2FA authentication", player.getUsername());
+    private void reissueRecoveryCodes(Player player) {
+        // Only someone who has just proven they hold the account gets new codes
+        if (!plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId())) {
+            player.sendMessage(messages().not2FA);
+            return;
         }
+        if (!plugin.getSessionStore().isAuthenticated(player.getUniqueId())) {
+            player.sendMessage(messages().recoveryVerifyFirst);
+            return;
+        }
+        // Hashing is cheap; recovery.json is written on its own thread
+        plugin.getTwoFactorManager().issueRecoveryCodes(player.getUniqueId())
+            .thenAccept(codes -> {
+                sendSafely(player, messages().recoveryCodes(codes));
+                plugin.getLogger().info("Player {} generated new 2FA recovery codes", player.getUsername());
+            })
+            .exceptionally(e -> {
+                plugin.getLogger().error("Failed to save recovery codes for {}: {}", player.getUsername(), e.getMessage());
+                sendSafely(player, messages().recoveryCodesFailed);
+                return null;
+            });
     }
 
     private void disableTwoFactor(Player player) {
         if (!plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId())) {
-            player.sendMessage(Component.text("You don't have 2FA enabled.")
-                .color(NamedTextColor.RED));
+            player.sendMessage(messages().notEnabled);
             return;
         }
 
-        player.sendMessage(Component.text("To disable 2FA, please provide your current 2FA code:")
-            .color(NamedTextColor.YELLOW));
-        player.sendMessage(Component.text("Use: /2fa-admin disable " + player.getUsername() + " <code>")
-            .color(NamedTextColor.YELLOW));
+        player.sendMessage(messages().disableInstructions(player.getUsername()));
     }
 
     private void showStatus(Player player) {
         boolean has2FA = plugin.getTwoFactorManager().hasSecretKey(player.getUniqueId());
-        Long expiry = plugin.getAuthenticatedPlayers().get(player.getUsername());
-        boolean isAuthenticated = expiry != null && expiry > System.currentTimeMillis();
-        boolean isPending = plugin.getPendingAuthentication().contains(player.getUsername());
-
-        player.sendMessage(Component.text("=== Your 2FA Status ===")
-            .color(NamedTextColor.GOLD));
-        player.sendMessage(Component.text("2FA Enabled: " + (has2FA ? "✓ Yes" : "✗ No"))
-            .color(has2FA ? NamedTextColor.GREEN : NamedTextColor.RED));
-        player.sendMessage(Component.text("Staff Permission: " + (hasStaffPermission(player) ? "✓ Yes" : "✗ No"))
-            .color(hasStaffPermission(player) ? NamedTextColor.GREEN : NamedTextColor.RED));
-        
-        if (has2FA) {
-            player.sendMessage(Component.text("Authenticated This Session: " + (isAuthenticated ? "✓ Yes" : "✗ No"))
-                .color(isAuthenticated ? NamedTextColor.GREEN : NamedTextColor.RED));
-            player.sendMessage(Component.text("Pending Authentication: " + (isPending ? "⚠ Yes" : "✓ No"))
-                .color(isPending ? NamedTextColor.YELLOW : NamedTextColor.GREEN));
-            if (isAuthenticated && expiry != null) {
-                long minsLeft = (expiry - System.currentTimeMillis()) / 60000L;
-                player.sendMessage(Component.text("Session expires in: " + minsLeft + " min")
-                    .color(NamedTextColor.AQUA));
-            }
-        }
-    }
+        boolean setupPending = !has2FA && plugin.getTwoFactorManager().hasPendingEnrollment(player.getUniqueId());
+        long expiry = plugin.getSessionStore().getExpiry(player.getUniqueId());
+        boolean isAuthenticated = expiry > 0;
+        boolean isPending = plugin.getPendingAuthentication().contains(player.getUniqueId());
+        boolean isStaff = plugin.getStaffPermissions().isStaff(player);
 
-    private boolean hasStaffPermission(Player player) {
-        return player.hasPermission("staff") || 
-               player.hasPermission("moderator") || 
-               player.hasPermission("admin") ||
-               player.hasPermission("helper") ||
-               player.hasPermission("velocity2fa.staff");
+        int recoveryLeft = has2FA ? plugin.getTwoFactorManager().getRecoveryCodesLeft(player.getUniqueId()) : 0;
+        long minsLeft = isAuthenticated ? (expiry - System.currentTimeMillis()) / 60000L : 0L;
+        player.sendMessage(messages().status(has2FA, isStaff, setupPending, isAuthenticated, isPending,
+            recoveryLeft, minsLeft));
     }
 
     @Override
     public CompletableFuture<List<String>> suggestAsync(Invocation invocation) {
-        return CompletableFuture.completedFuture(List.of("setup", "verify", "disable", "status"));
+        return CompletableFuture.completedFuture(List.of("setup", "verify", "disable", "status", "recovery"));
     }
 }
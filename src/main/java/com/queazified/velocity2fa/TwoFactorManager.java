@@ -1,30 +1,114 @@
 package com.queazified.velocity2fa;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
 import org.slf4j.Logger;
-import com.warrenstrange.googleauth.GoogleAuthenticator;
-import com.warrenstrange.googleauth.GoogleAuthenticatorKey;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
 public class TwoFactorManager {
+
+    /**
+     * What an import does with players who already have a secret
+     */
+    public enum ConflictPolicy {
+        SKIP, OVERWRITE, FAIL;
+
+        /**
+         * @return the policy, or null if the name is not recognised
+         */
+        public static ConflictPolicy fromName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    public static final class ImportResult {
+        public final int added;
+        public final int replaced;
+        public final int skipped;
+        /** Players who had a secret before the import, whether replaced or skipped */
+        public final Set<UUID> conflicts;
+        public final Set<UUID> imported;
+
+        ImportResult(int added, int replaced, int skipped, Set<UUID> conflicts, Set<UUID> imported) {
+            this.added = added;
+            this.replaced = replaced;
+            this.skipped = skipped;
+            this.conflicts = conflicts;
+            this.imported = imported;
+        }
+    }
     private final Path storagePath;
     private final Logger logger;
-    private final Map<UUID, String> secretKeys = new HashMap<>();
-    private final File secretsFile;
-    private final GoogleAuthenticator authenticator = new GoogleAuthenticator();
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final SecretRegistry secretKeys = new SecretRegistry();
+    // Where secrets live; for lazy stores secretKeys only caches looked-up players
+    private final SecretStore store;
+    private final SecretStores.Format format;
+    // Null when secrets are stored in plain Base32
+    private final SecretCipher cipher;
+    private final AtomicBoolean reencrypting = new AtomicBoolean();
+    // Serializes writers so the store always sees changes in registry order; readers never take it
+    private final Object writeLock = new Object();
+    private final TotpEngine totpEngine = new TotpEngine(3);
+    private final ReplayGuard replayGuard = new ReplayGuard();
+    // Secrets from /2fa setup that wait for their first code before being stored
+    private final PendingEnrollments pendingEnrollments = new PendingEnrollments();
+    private final RecoveryCodes recoveryCodes;
+    private volatile String issuer = new ConfigManager.Config().issuerName;
+    private final Metrics metrics;
+    // Lazy stores would need a full count per query; track it from our own writes instead
+    private final AtomicInteger lazyEnabledUsers = new AtomicInteger();
 
     public TwoFactorManager(Path storagePath, Logger logger) {
+        this(storagePath, logger, "json", null);
+    }
+
+    public TwoFactorManager(Path storagePath, Logger logger, String storageFormat, Path sqlDatabase) {
+        this(storagePath, logger, storageFormat, sqlDatabase, new Metrics());
+    }
+
+    public TwoFactorManager(Path storagePath, Logger logger, String storageFormat, Path sqlDatabase, Metrics metrics) {
+        this(storagePath, logger, storageFormat, sqlDatabase, metrics, new SecretCipher.Settings("none", null, null));
+    }
+
+    /**
+     * @param storageFormat "json" (secrets.json + journal, fully loaded),
+     *                      "mapped" (secrets.bin, looked up lazily) or
+     *                      "h2" (embedded database, looked up lazily)
+     * @param sqlDatabase   h2 database file without extension, or null for
+     *                      secrets in the plugin folder
+     * @param metrics       where verification and storage latencies go
+     * @param encryption    how stored secrets are encrypted; the keyring
+     *                      lives next to the h2 database, or in the plugin
+     *                      folder for the other formats
+     * @throws IllegalStateException if the secret store can't be opened,
+     *         the encryption key can't be loaded, or secrets.json holds
+     *         encrypted secrets while encryption is off; starting without
+     *         them would make every enrolled player look unenrolled
+     */
+    public TwoFactorManager(Path storagePath, Logger logger, String storageFormat, Path sqlDatabase, Metrics metrics,
+                            SecretCipher.Settings encryption) {
         this.storagePath = storagePath;
         this.logger = logger;
-        this.secretsFile = storagePath.resolve("secrets.json").toFile();
+        this.metrics = metrics;
         
         // Ensure directory exists
         try {
@@ -34,111 +118,492 @@ public class TwoFactorManager {
         } catch (Exception e) {
             logger.error("Failed to create storage directory: {}", e.getMessage());
         }
-        
-        loadSecrets();
+
+        this.recoveryCodes = new RecoveryCodes(storagePath, logger);
+
+        SecretStores.Format requested = SecretStores.Format.fromName(storageFormat);
+        if (requested == null) {
+            logger.warn("Unknown storageFormat '{}', using json", storageFormat);
+            requested = SecretStores.Format.JSON;
+        }
+        SecretStore opened = SecretStores.open(requested, storagePath, sqlDatabaseOrDefault(sqlDatabase), logger);
+        this.format = requested;
+        SecretCipher openedCipher = null;
+        try {
+            if (encryption.isEnabled()) {
+                try {
+                    openedCipher = encryption.open(keyringFor(format, sqlDatabase), logger);
+                } catch (IOException | GeneralSecurityException e) {
+                    throw new IllegalStateException("Failed to load the 2FA encryption key: " + e.getMessage(), e);
+                }
+                opened = new EncryptedSecretStore(opened, openedCipher, logger);
+                logger.info("2FA secrets are encrypted with a {} key", encryption.mode);
+            }
+            this.store = opened;
+            this.cipher = openedCipher;
+            if (store.isLazy()) {
+                lazyEnabledUsers.set(store.size());
+            } else {
+                loadSecrets();
+            }
+        } catch (RuntimeException e) {
+            // Release the files (and the h2 lock) so a fixed config can open them again
+            opened.close();
+            recoveryCodes.close();
+            throw e;
+        }
     }
 
+    /**
+     * Point-in-time copy of every enrolled UUID, safe to iterate
+     */
     public Set<UUID> getAllSecretUUIDs() {
-        return secretKeys.keySet();
+        if (store.isLazy()) {
+            Set<UUID> uuids = new HashSet<>();
+            store.forEach((uuid, secret) -> uuids.add(uuid));
+            return uuids;
+        }
+        return secretKeys.snapshotUUIDs();
     }
 
     public boolean hasSecretKey(UUID uuid) {
-        return secretKeys.containsKey(uuid);
+        return secretKeys.contains(uuid) || (store.isLazy() && store.contains(uuid));
     }
 
     public void removeSecretKey(UUID uuid) {
-        secretKeys.remove(uuid);
-        saveSecrets();
+        synchronized (writeLock) {
+            pendingEnrollments.remove(uuid);
+            recoveryCodes.remove(uuid);
+            secretKeys.remove(uuid);
+            replayGuard.forget(uuid);
+            long start = System.nanoTime();
+            if (store.remove(uuid) && store.isLazy()) {
+                lazyEnabledUsers.decrementAndGet();
+            }
+            metrics.saveSecrets.record(System.nanoTime() - start);
+        }
     }
 
     public boolean verifyCode(UUID uuid, String code) {
-        String secret = secretKeys.get(uuid);
-        if (secret == null) return false;
+        long start = System.nanoTime();
+        boolean valid = checkCode(uuid, code);
+        metrics.verifyCode.record(System.nanoTime() - start);
+        (valid ? metrics.verifySuccesses : metrics.verifyFailures).increment();
+        return valid;
+    }
+
+    private boolean checkCode(UUID uuid, String code) {
+        TotpSecret secret = lookup(uuid);
+        PendingEnrollments.Pending pending = null;
+        if (secret == null) {
+            pending = pendingEnrollments.get(uuid, System.currentTimeMillis());
+            if (pending == null) return false;
+            secret = pending.secret;
+        }
         
         try {
-            int codeInt = Integer.parseInt(code);
-            return authenticator.authorize(secret, codeInt);
-        } catch (NumberFormatException e) {
-            logger.debug("Invalid code format from player {}: {}", uuid, code);
-            return false;
+            TotpEngine.Settings settings = totpEngine.getSettings();
+            int parsed = TotpEngine.parseCode(code, settings.digits);
+            if (parsed < 0) {
+                logger.debug("Invalid code format from player {}: {}", uuid, code);
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            long step = totpEngine.match(settings, secret, parsed, now);
+            if (step < 0) {
+                return false;
+            }
+            // A code is single use: reject it (and any older one) once accepted
+            if (!replayGuard.tryAccept(uuid, step, settings.oldestStepAt(now))) {
+                logger.debug("Rejected reused 2FA code from player {}", uuid);
+                return false;
+            }
+            totpEngine.accept(settings, secret, step, now);
+            return pending == null || promote(uuid, pending);
         } catch (Exception e) {
             logger.error("Error verifying 2FA code for {}: {}", uuid, e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Redeem a recovery code instead of a TOTP code. Never touches the TOTP
+     * engine or the secret store; each code works once, even when two
+     * attempts race.
+     */
+    public boolean useRecoveryCode(UUID uuid, String code) {
+        boolean valid = recoveryCodes.consume(uuid, code);
+        (valid ? metrics.recoveryCodesUsed : metrics.verifyFailures).increment();
+        return valid;
+    }
+
+    /**
+     * Replace the player's recovery codes
+     *
+     * @return the new codes in plain text once recovery.json holds their
+     *         hashes; completes exceptionally if it could not be written
+     */
+    public CompletableFuture<List<String>> issueRecoveryCodes(UUID uuid) {
+        return recoveryCodes.issue(uuid);
+    }
+
+    public int getRecoveryCodesLeft(UUID uuid) {
+        return recoveryCodes.remaining(uuid);
+    }
+
+    /**
+     * Stage a new secret for {@code /2fa setup}. Nothing is stored until the
+     * player confirms it with a code; until then, and if the setup is
+     * abandoned, 2FA stays off. Asking again while a setup is pending
+     * returns the same secret.
+     *
+     * @return the Base32 secret to show the player
+     */
+    public String beginEnrollment(UUID uuid) {
+        return pendingEnrollments.begin(uuid, System.currentTimeMillis()).secret.encoded();
+    }
+
+    public boolean hasPendingEnrollment(UUID uuid) {
+        return pendingEnrollments.get(uuid, System.currentTimeMillis()) != null;
+    }
+
+    public int getPendingEnrollmentCount() {
+        return pendingEnrollments.size();
+    }
+
+    /**
+     * Drop setups that were never confirmed in time
+     *
+     * @return the players whose setup expired
+     */
+    public List<UUID> sweepPendingEnrollments() {
+        return pendingEnrollments.sweep(System.currentTimeMillis());
+    }
+
+    /**
+     * Store a confirmed pending secret
+     *
+     * @return false if the setup was replaced, expired or superseded meanwhile
+     */
+    private boolean promote(UUID uuid, PendingEnrollments.Pending pending) {
+        synchronized (writeLock) {
+            if (pendingEnrollments.get(uuid, System.currentTimeMillis()) != pending || hasSecretKey(uuid)) {
+                return false;
+            }
+            persist(uuid, pending.secret);
+            pendingEnrollments.remove(uuid, pending);
+            return true;
+        }
+    }
+
+    /**
+     * Generate and store a secret right away, skipping confirmation
+     */
     public String generateSecretKey(UUID uuid) {
         try {
-            GoogleAuthenticatorKey key = authenticator.createCredentials();
-            String secret = key.getKey();
-            secretKeys.put(uuid, secret);
-            saveSecrets();
-            return secret;
+                TotpSecret secret = TotpSecret.generate();
+            synchronized (writeLock) {
+                pendingEnrollments.remove(uuid);
+                replayGuard.forget(uuid);
+                persist(uuid, secret);
+            }
+            return secret.encoded();
         } catch (Exception e) {
             logger.error("Failed to generate secret key for {}: {}", uuid, e.getMessage());
             throw new RuntimeException("Failed to generate 2FA secret", e);
         }
     }
 
+    // Caller holds writeLock
+    private void persist(UUID uuid, TotpSecret secret) {
+        secretKeys.put(uuid, secret);
+        long start = System.nanoTime();
+        if (store.isLazy() && !store.contains(uuid)) {
+            lazyEnabledUsers.incrementAndGet();
+        }
+        store.put(uuid, secret.encoded());
+        metrics.saveSecrets.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Add many secrets at once, e.g. from an import. The whole batch goes to
+     * the store in one {@link SecretStore#putAll} (one flush or transaction)
+     * before any of it becomes visible to verification.
+     *
+     * @throws IllegalStateException if the policy is FAIL and any of the
+     *         players already has a secret; nothing is written then
+     */
+    public ImportResult importSecrets(Map<UUID, TotpSecret> secrets, ConflictPolicy policy) {
+        synchronized (writeLock) {
+            Map<UUID, String> toWrite = new HashMap<>();
+            Set<UUID> conflicts = new HashSet<>();
+            for (Map.Entry<UUID, TotpSecret> entry : secrets.entrySet()) {
+                if (hasSecretKey(entry.getKey())) {
+                    conflicts.add(entry.getKey());
+                    if (policy != ConflictPolicy.OVERWRITE) {
+                        continue;
+                    }
+                }
+                toWrite.put(entry.getKey(), entry.getValue().encoded());
+            }
+            if (policy == ConflictPolicy.FAIL && !conflicts.isEmpty()) {
+                throw new IllegalStateException(conflicts.size() + " of the imported players already have 2FA enabled");
+            }
+
+            long start = System.nanoTime();
+            store.putAll(toWrite);
+            metrics.saveSecrets.record(System.nanoTime() - start);
+
+            for (UUID uuid : toWrite.keySet()) {
+                pendingEnrollments.remove(uuid);
+                if (conflicts.contains(uuid)) {
+                    // Codes belong to the replaced enrollment
+                    recoveryCodes.remove(uuid);
+                }
+                replayGuard.forget(uuid);
+                if (store.isLazy()) {
+                    // Only a cache here; the next lookup decodes the new secret
+                    secretKeys.remove(uuid);
+                } else {
+                    secretKeys.put(uuid, secrets.get(uuid));
+                }
+            }
+            int replaced = policy == ConflictPolicy.OVERWRITE ? conflicts.size() : 0;
+            int added = toWrite.size() - replaced;
+            if (store.isLazy()) {
+                lazyEnabledUsers.addAndGet(added);
+            }
+            return new ImportResult(added, replaced, conflicts.size() - replaced, conflicts, toWrite.keySet());
+        }
+    }
+
+    /**
+     * Visit every stored secret in its Base32 form, e.g. for an export
+     */
+    public void forEachSecret(BiConsumer<UUID, String> visitor) {
+        store.forEach(visitor);
+    }
+
+    /**
+     * Apply issuerName, enrollmentTimeoutSeconds, codeWindow, codeTimeStep,
+     * codeDigits and codeAlgorithm; safe to call while verifications are running
+     */
+    public void configure(ConfigSnapshot config) {
+        this.issuer = config.issuerName;
+        pendingEnrollments.setTtlMillis(config.enrollmentTimeoutSeconds * 1000L);
+        if (totpEngine.reconfigure(config.codeWindow, config.codeTimeStep, config.codeDigits, config.codeAlgorithm)) {
+            // Step numbers of a different length can't be compared
+            replayGuard.clear();
+        }
+    }
+
     public String generateQRUrl(String username, String secret) {
+        String issuer = this.issuer;
         try {
-            String issuer = "Velocity2FA";
-            return "otpauth://totp/" + java.net.URLEncoder.encode(issuer + ":" + username, "UTF-8") + 
+            String url = "otpauth://totp/" + java.net.URLEncoder.encode(issuer + ":" + username, "UTF-8") +
                    "?secret=" + secret + "&issuer=" + java.net.URLEncoder.encode(issuer, "UTF-8");
+            TotpEngine.Settings settings = totpEngine.getSettings();
+            if (!settings.isDefault()) {
+                url += "&algorithm=" + settings.algorithm + "&digits=" + settings.digits
+                    + "&period=" + settings.timeStepSeconds;
+            }
+            return url;
         } catch (Exception e) {
             logger.error("Failed to generate QR URL for {}: {}", username, e.getMessage());
-            return "otpauth://totp/Velocity2FA:" + username + "?secret=" + secret + "&issuer=Velocity2FA";
+            return "otpauth://totp/" + issuer + ":" + username + "?secret=" + secret + "&issuer=" + issuer;
         }
     }
 
+    /**
+     * Constant time. With a lazy store shared between proxies, enrollments
+     * made on other proxies since this one started are not counted.
+     */
     public int getTotalEnabledUsers() {
-        return secretKeys.size();
+        return store.isLazy() ? lazyEnabledUsers.get() : secretKeys.size();
     }
 
-    private void loadSecrets() {
-        if (!secretsFile.exists()) {
-            logger.info("No secrets file found, starting with empty 2FA database");
-            return;
+    public SecretStores.Format getStorageFormat() {
+        return format;
+    }
+
+    /**
+     * Copy every secret into another backend so the server can be switched
+     * to it. Writes are held off while copying so nothing is missed.
+     *
+     * @return number of secrets copied
+     * @throws IllegalArgumentException if the target is the active backend
+     */
+    public int migrateTo(SecretStores.Format target, Path sqlDatabase) throws Exception {
+        if (target == format) {
+            throw new IllegalArgumentException(target.configName() + " is already the active storage");
         }
-        
-        try (java.io.FileReader reader = new java.io.FileReader(secretsFile)) {
-            TypeToken<Map<String, String>> typeToken = new TypeToken<Map<String, String>>() {};
-            Map<String, String> map = gson.fromJson(reader, typeToken.getType());
-            
-            if (map != null) {
-                secretKeys.clear();
-                for (Map.Entry<String, String> entry : map.entrySet()) {
-                    try {
-                        UUID uuid = UUID.fromString(entry.getKey());
-                        secretKeys.put(uuid, entry.getValue());
-                    } catch (IllegalArgumentException e) {
-                        logger.warn("Invalid UUID in secrets file: {}", entry.getKey());
-                    }
+        synchronized (writeLock) {
+            if (cipher != null) {
+                // The target reads its keyring from its own location; take the current keys along
+                Path keyring = keyringFor(target, sqlDatabase);
+                if (!keyring.equals(cipher.getKeyringFile())) {
+                    Files.copy(cipher.getKeyringFile(), keyring, StandardCopyOption.REPLACE_EXISTING);
                 }
-                logger.info("Loaded {} 2FA secrets", secretKeys.size());
             }
-        } catch (Exception e) {
-            logger.error("Failed to load secrets.json: {}", e.getMessage());
+            SecretStore raw = SecretStores.openRaw(target, storagePath, sqlDatabaseOrDefault(sqlDatabase), logger);
+            try (SecretStore to = cipher != null ? new EncryptedSecretStore(raw, cipher, logger) : raw) {
+                int copied = SecretStores.copy(store, to);
+                logger.info("Copied {} 2FA secrets from {} to {} storage", copied, format.configName(), target.configName());
+                return copied;
+            }
         }
     }
 
-    private void saveSecrets() {
+    public boolean isEncrypted() {
+        return cipher != null;
+    }
+
+    /**
+     * Re-encrypt every secret that is still plaintext or uses an older data
+     * key, then retire the old keys. Runs in batches of
+     * {@link SecretStores#MIGRATION_BATCH_SIZE}, taking the write lock for
+     * one batch at a time, so verification carries on throughout and
+     * enrollments wait for at most one batch.
+     *
+     * @param rotate first switch to a brand new data key, so every secret is rewritten
+     * @param progress called with the running count after each batch
+     * @return number of secrets rewritten
+     * @throws IllegalStateException if encryption is off or a job is already running
+     */
+    public long reencrypt(boolean rotate, LongConsumer progress) throws IOException, GeneralSecurityException {
+        if (cipher == null) {
+            throw new IllegalStateException("encryption is off");
+        }
+        if (!reencrypting.compareAndSet(false, true)) {
+            throw new IllegalStateException("re-encryption is already running");
+        }
         try {
-            // Ensure parent directory exists
-            if (!secretsFile.getParentFile().exists()) {
-                secretsFile.getParentFile().mkdirs();
-            }
-            
-            try (java.io.FileWriter writer = new java.io.FileWriter(secretsFile)) {
-                Map<String, String> map = new HashMap<>();
-                for (Map.Entry<UUID, String> entry : secretKeys.entrySet()) {
-                    map.put(entry.getKey().toString(), entry.getValue());
+            if (rotate) {
+                cipher.rotate();
+            }
+            SecretStore raw = ((EncryptedSecretStore) store).getDelegate();
+            List<UUID> stale = new ArrayList<>();
+            raw.forEach((uuid, value) -> {
+                if (!cipher.isCurrent(value)) {
+                    stale.add(uuid);
                 }
-                gson.toJson(map, writer);
-                logger.debug("Saved {} 2FA secrets to file", secretKeys.size());
+            });
+
+            long rewritten = 0;
+            int failed = 0;
+            for (int from = 0; from < stale.size(); from += SecretStores.MIGRATION_BATCH_SIZE) {
+                List<UUID> chunk = stale.subList(from, Math.min(stale.size(), from + SecretStores.MIGRATION_BATCH_SIZE));
+                Map<UUID, String> batch = new HashMap<>();
+                synchronized (writeLock) {
+                    for (UUID uuid : chunk) {
+                        // Re-read under the lock; the player may have re-enrolled or disabled 2FA since the scan
+                        String value = raw.get(uuid);
+                        if (value == null || cipher.isCurrent(value)) {
+                            continue;
+                        }
+                        try {
+                            batch.put(uuid, cipher.encrypt(uuid, cipher.decrypt(uuid, value)));
+                        } catch (IllegalArgumentException e) {
+                            logger.warn("Can't re-encrypt 2FA secret: {}", e.getMessage());
+                            failed++;
+                        }
+                    }
+                    raw.putAll(batch);
+                }
+                rewritten += batch.size();
+                progress.accept(rewritten);
             }
-        } catch (Exception e) {
-            logger.error("Failed to save secrets.json: {}", e.getMessage());
+
+            if (failed == 0) {
+                cipher.retireOldKeys();
+            } else {
+                logger.warn("Kept old 2FA data keys because {} secrets could not be re-encrypted", failed);
+            }
+            return rewritten;
+        } finally {
+            reencrypting.set(false);
+        }
+    }
+
+    /**
+     * Flush pending changes and release the store
+     */
+    public void shutdown() {
+        store.close();
+        recoveryCodes.close();
+    }
+
+    /**
+     * Decoded secret for a player. For lazy stores the registry only caches
+     * secrets that have been looked up at least once.
+     */
+    private TotpSecret lookup(UUID uuid) {
+        TotpSecret secret = secretKeys.get(uuid);
+        if (secret != null || !store.isLazy()) {
+            return secret;
+        }
+        long start = System.nanoTime();
+        try {
+            String encoded = store.get(uuid);
+            metrics.loadSecrets.record(System.nanoTime() - start);
+            if (encoded == null) {
+                return null;
+            }
+            if (cipher == null && SecretCipher.isEncrypted(encoded)) {
+                // Still stored, so the player stays gated; there is just no way to check a code
+                logger.error("2FA secret for {} is encrypted but encryption is off, code can't be verified", uuid);
+                return null;
+            }
+            secret = TotpSecret.fromBase32(encoded);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid 2FA secret stored for {}: {}", uuid, e.getMessage());
+            return null;
+        }
+        synchronized (writeLock) {
+            // Don't resurrect a secret removed while we were decoding it
+            if (store.contains(uuid)) {
+                secretKeys.put(uuid, secret);
+            }
+        }
+        return secret;
+    }
+
+    /**
+     * Keys go with the data: next to an h2 database (which proxies may
+     * share), otherwise in the plugin folder
+     */
+    private Path keyringFor(SecretStores.Format format, Path sqlDatabase) {
+        if (format == SecretStores.Format.H2) {
+            Path database = sqlDatabaseOrDefault(sqlDatabase);
+            return database.resolveSibling(database.getFileName() + ".keyring");
+        }
+        return storagePath.resolve("secrets.keyring");
+    }
+
+    private Path sqlDatabaseOrDefault(Path sqlDatabase) {
+        return sqlDatabase != null ? sqlDatabase : storagePath.resolve("secrets");
+    }
+
+    private void loadSecrets() {
+        long start = System.nanoTime();
+        Map<UUID, TotpSecret> loaded = new HashMap<>();
+        store.forEach((uuid, encoded) -> {
+            if (cipher == null && SecretCipher.isEncrypted(encoded)) {
+                throw new IllegalStateException("secrets.json holds encrypted secrets but encryption is off; "
+                    + "set \"encryption\" back to the mode they were written with");
+            }
+            try {
+                loaded.put(uuid, TotpSecret.fromBase32(encoded));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid 2FA secret stored for {}: {}", uuid, e.getMessage());
+            }
+        });
+        secretKeys.replaceAll(loaded);
+        metrics.loadSecrets.record(System.nanoTime() - start);
+        if (loaded.isEmpty()) {
+            logger.info("No stored secrets found, starting with empty 2FA database");
+        } else {
+            logger.info("Loaded {} 2FA secrets", loaded.size());
         }
     }
-}
\ No newline at end of file
+}
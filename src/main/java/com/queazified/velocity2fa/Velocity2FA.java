@@ -1,23 +1,26 @@
 package com.queazified.velocity2fa;
-import java.util.Map;
-
 import com.google.inject.Inject;
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.permission.PermissionsSetupEvent;
+import com.velocitypowered.api.event.player.ServerPostConnectEvent;
 import com.velocitypowered.api.event.player.ServerPreConnectEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.command.CommandManager;
-import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.format.NamedTextColor;
 import org.slf4j.Logger;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Plugin(
     id = "velocity2fa",
@@ -34,9 +37,18 @@ public class Velocity2FA {
     
     private TwoFactorManager twoFactorManager;
     private ConfigManager configManager;
-    // Session cache: username -> expiry timestamp
-    private final Map<String, Long> authenticatedPlayers = new ConcurrentHashMap<>();
-    private final Set<String> pendingAuthentication = ConcurrentHashMap.newKeySet();
+    private StaffPermissionResolver staffPermissions;
+    private PluginExecutor executor;
+    private AuthThrottle authThrottle;
+    private PlayerIndex playerIndex;
+    private SessionTransport sessionTransport;
+    private MetricsServer metricsServer;
+    private QrCodes qrCodes;
+    private final Metrics metrics = new Metrics();
+    private final SessionStore sessionStore = new SessionStore();
+    private final OnlineRoster roster = new OnlineRoster();
+    private final AuthStates authStates = new AuthStates();
+    private final Set<UUID> pendingAuthentication = ConcurrentHashMap.newKeySet();
 
     @Inject
     public Velocity2FA(ProxyServer server, Logger logger, @DataDirectory Path dataDirectory) {
@@ -50,84 +62,322 @@ public class Velocity2FA {
         logger.info("Velocity2FA is starting up...");
         
         // Initialize managers
-        this.configManager = new ConfigManager(dataDirectory);
-        this.twoFactorManager = new TwoFactorManager(dataDirectory, logger);
+        this.configManager = new ConfigManager(dataDirectory, logger);
+        ConfigSnapshot config = configManager.getConfig();
+        this.executor = new PluginExecutor(config.executorMode, config.executorThreads, logger);
+        this.staffPermissions = new StaffPermissionResolver(config.staffPermissions);
+        this.playerIndex = new PlayerIndex(dataDirectory, logger);
+        if (configManager.getStartupProblem() != null) {
+            // Default storage and encryption may not be where the secrets are; opening them would unenroll everyone
+            logger.error("config.json is invalid, 2FA secret storage was not opened; staff can't join any server "
+                + "until it is fixed and the proxy is restarted");
+            return;
+        }
+        try {
+            this.twoFactorManager = new TwoFactorManager(dataDirectory, logger, config.storageFormat, config.sqlDatabase,
+                metrics, SecretCipher.Settings.of(config, dataDirectory));
+        } catch (IllegalStateException e) {
+            // Fail closed: without the secrets nobody can be verified, so staff stay at the gate
+            logger.error("Failed to open 2FA secret storage, staff can't join any server until it is fixed "
+                + "and the proxy is restarted: {}", e.getMessage());
+            return;
+        }
+        twoFactorManager.configure(config);
+        if (twoFactorManager.isEncrypted()) {
+            // Encrypt anything still stored in plaintext without holding up startup
+            executor.execute(() -> {
+                try {
+                    long encrypted = twoFactorManager.reencrypt(false, count -> { });
+                    if (encrypted > 0) {
+                        logger.info("Encrypted {} stored 2FA secrets", encrypted);
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to encrypt stored 2FA secrets: {}", e.getMessage());
+                }
+            });
+        }
+        this.authThrottle = new AuthThrottle(config.maxAuthAttempts);
+        this.qrCodes = new QrCodes(executor, logger);
+        sessionStore.setListener(authStates);
+        if (config.sessionSharing.equals("file")) {
+            try {
+                this.sessionTransport = new FileSessionTransport(config.sessionSharingDirectory, config.serverName, logger);
+                sessionStore.attach(sessionTransport);
+                logger.info("Sharing 2FA sessions with other proxies through {}", config.sessionSharingDirectory);
+            } catch (IOException e) {
+                logger.error("Failed to start session sharing, sessions stay local to this proxy: {}", e.getMessage());
+            }
+        }
+        configManager.startWatching(changed -> applyConfig());
+        registerMetrics();
+        if (config.metricsPort > 0) {
+            try {
+                this.metricsServer = new MetricsServer(config.metricsPort, metrics, logger);
+                logger.info("Serving metrics on http://127.0.0.1:{}/metrics", config.metricsPort);
+            } catch (IOException e) {
+                logger.error("Failed to start metrics endpoint on port {}: {}", config.metricsPort, e.getMessage());
+            }
+        }
         
         // Register commands
         CommandManager commandManager = server.getCommandManager();
         commandManager.register("2fa", new TwoFactorCommand(this));
         commandManager.register("2fa-admin", new AdminCommand(this));
+
+        // Evict expired sessions one timer-wheel slot at a time
+        server.getScheduler().buildTask(this, sessionStore::sweep)
+            .repeat(SessionStore.TICK_MILLIS, TimeUnit.MILLISECONDS)
+            .schedule();
+        server.getScheduler().buildTask(this, authThrottle::evictIdle)
+            .repeat(5, TimeUnit.MINUTES)
+            .schedule();
+        server.getScheduler().buildTask(this, this::sweepPendingEnrollments)
+            .repeat(1, TimeUnit.MINUTES)
+            .schedule();
+        server.getScheduler().buildTask(this, playerIndex::saveIfDirty)
+            .repeat(1, TimeUnit.MINUTES)
+            .schedule();
+        // Rank changes fire no event; re-check online players as cached answers expire
+        server.getScheduler().buildTask(this, this::refreshOnlineStaff)
+            .repeat(StaffPermissionResolver.CACHE_TTL_MILLIS, TimeUnit.MILLISECONDS)
+            .schedule();
         
         logger.info("Velocity2FA has been enabled successfully!");
     }
 
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent event) {
+        if (configManager != null) {
+            configManager.close();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (sessionTransport != null) {
+            sessionTransport.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (twoFactorManager != null) {
+            twoFactorManager.shutdown();
+        }
+        if (playerIndex != null) {
+            playerIndex.saveIfDirty();
+        }
+    }
+
     @Subscribe
     public void onPostLogin(PostLoginEvent event) {
         Player player = event.getPlayer();
+        long start = System.nanoTime();
         
         try {
-            // Check if player has staff permission and 2FA enabled
-            if (hasStaffPermission(player) && twoFactorManager.hasSecretKey(player.getUniqueId())) {
-                pendingAuthentication.add(player.getUsername());
-                // Use scheduler to send messages after a longer delay to ensure connection is stable
-                server.getScheduler().buildTask(this, () -> {
-                    try {
-                        if (player.isActive()) {
-                            player.sendMessage(Component.text("=== 2FA AUTHENTICATION REQUIRED ===")
-                                .color(NamedTextColor.RED));
-                            player.sendMessage(Component.text("Please enter your 2FA code using: /2fa <code>")
-                                .color(NamedTextColor.YELLOW));
-                            player.sendMessage(Component.text("You cannot join servers until authenticated.")
-                                .color(NamedTextColor.RED));
-                        }
-                    } catch (Exception msgEx) {
-                        logger.warn("Failed to send 2FA login message to player {}: {}", player.getUsername(), msgEx.getMessage());
-                    }
-                }).delay(2, java.util.concurrent.TimeUnit.SECONDS).schedule();
+            boolean isStaff = staffPermissions.isStaff(player);
+            if (twoFactorManager == null) {
+                // Secret storage failed to open; treat staff as enrolled and never authenticated
+                authStates.login(player.getUniqueId(), isStaff, true, 0);
+                return;
+            }
+            boolean has2FA = twoFactorManager.hasSecretKey(player.getUniqueId());
+            // Remember the name so admin commands can find this player while offline
+            if (isStaff || has2FA) {
+                playerIndex.record(player.getUniqueId(), player.getUsername());
+            }
+            roster.login(player.getUniqueId(), player.getUsername(), isStaff, has2FA);
+
+            // One lookup of everything the connect gate needs; a session from
+            // another proxy already counts
+            long expiry = sessionStore.getExpiry(player.getUniqueId());
+            AuthStates.State state = authStates.login(player.getUniqueId(), isStaff, has2FA, expiry);
+            if (state.isPending(System.currentTimeMillis())) {
+                pendingAuthentication.add(player.getUniqueId());
             }
         } catch (Exception e) {
             logger.error("Error in PostLogin event for player {}: {}", player.getUsername(), e.getMessage(), e);
+        } finally {
+            metrics.postLogin.record(System.nanoTime() - start);
         }
     }
 
     @Subscribe
     public void onServerPreConnect(ServerPreConnectEvent event) {
         Player player = event.getPlayer();
+        long start = System.nanoTime();
         try {
-            String limboServer = configManager.getConfig().limboServer;
-            boolean isStaff = hasStaffPermission(player);
-            boolean has2FA = twoFactorManager.hasSecretKey(player.getUniqueId());
-            boolean isAuthenticated = authenticatedPlayers.containsKey(player.getUsername());
-            String targetServer = event.getOriginalServer().getServerInfo().getName();
-
-            // If staff, has 2FA, and not authenticated
-            if (isStaff && has2FA && !isAuthenticated) {
-                if (!targetServer.equalsIgnoreCase(limboServer)) {
+            AuthStates.State state = stateOf(player);
+            if (!state.isUnlocked(System.currentTimeMillis())) {
+                ConfigSnapshot config = configManager.getConfig();
+                String targetServer = event.getOriginalServer().getServerInfo().getName();
+                // Staff with 2FA and no session may only join limbo
+                if (!config.isLimboServer(targetServer)) {
                     event.setResult(ServerPreConnectEvent.ServerResult.denied());
+                    metrics.deniedConnects.increment();
                     try {
-                        player.sendMessage(Component.text("You must authenticate with 2FA first! Use /2fa <code>")
-                            .color(NamedTextColor.RED));
-                        player.sendMessage(Component.text("You may only join the lobby/limbo server until authenticated.")
-                            .color(NamedTextColor.YELLOW));
+                        player.sendMessage(config.messages.connectDenied);
                     } catch (Exception msgEx) {
                         logger.warn("Failed to send 2FA message to player {}: {}", player.getUsername(), msgEx.getMessage());
                     }
                 }
-                // If joining limbo, allow
             }
         } catch (Exception e) {
             logger.error("Error in ServerPreConnect event for player {}: {}", player.getUsername(), e.getMessage(), e);
             // Don't block the connection if there's an error in our plugin
+        } finally {
+            metrics.serverPreConnect.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The login prompt goes out once the player is on a backend and can
+     * actually see chat, rather than after a fixed delay
+     */
+    @Subscribe
+    public void onServerPostConnect(ServerPostConnectEvent event) {
+        Player player = event.getPlayer();
+        AuthStates.State state = authStates.get(player.getUniqueId());
+        // No prompt while storage is down: there is no code that could be accepted
+        if (state != null && twoFactorManager != null && state.claimPrompt(System.currentTimeMillis())) {
+            try {
+                player.sendMessage(configManager.getConfig().messages.loginPrompt);
+            } catch (Exception msgEx) {
+                logger.warn("Failed to send 2FA login message to player {}: {}", player.getUsername(), msgEx.getMessage());
+            }
+        }
+    }
+
+    @Subscribe
+    public void onDisconnect(DisconnectEvent event) {
+        // Sessions outlive the connection until they expire; only the pending prompt is per-login
+        pendingAuthentication.remove(event.getPlayer().getUniqueId());
+        staffPermissions.invalidate(event.getPlayer().getUniqueId());
+        roster.logout(event.getPlayer().getUniqueId());
+        authStates.logout(event.getPlayer().getUniqueId());
+    }
+
+    @Subscribe
+    public void onPermissionsSetup(PermissionsSetupEvent event) {
+        // A (re)installed permission provider may answer differently
+        if (staffPermissions != null && event.getSubject() instanceof Player) {
+            Player player = (Player) event.getSubject();
+            staffPermissions.invalidate(player.getUniqueId());
+            if (authStates.get(player.getUniqueId()) != null) {
+                // Already past PostLogin; the new provider is only installed once every handler has run
+                server.getScheduler().buildTask(this, () -> refreshStaff(player))
+                    .delay(1, TimeUnit.SECONDS)
+                    .schedule();
+            }
+        }
+    }
+
+    private void refreshOnlineStaff() {
+        for (Player player : server.getAllPlayers()) {
+            refreshStaff(player);
+        }
+    }
+
+    /**
+     * Ask again whether an online player is staff and, if the answer
+     * changed, gate or release them from now on
+     */
+    private void refreshStaff(Player player) {
+        AuthStates.State state = authStates.get(player.getUniqueId());
+        if (state == null) {
+            return;
+        }
+        boolean isStaff = staffPermissions.isStaff(player);
+        if (state.isStaff() == isStaff) {
+            return;
+        }
+        authStates.setStaff(player.getUniqueId(), isStaff);
+        roster.setStaff(player.getUniqueId(), isStaff);
+        if (isStaff) {
+            playerIndex.record(player.getUniqueId(), player.getUsername());
+        }
+        long now = System.currentTimeMillis();
+        if (!state.isPending(now)) {
+            pendingAuthentication.remove(player.getUniqueId());
+        } else {
+            pendingAuthentication.add(player.getUniqueId());
+            if (twoFactorManager != null && state.claimPrompt(now)) {
+                try {
+                    player.sendMessage(configManager.getConfig().messages.loginPrompt);
+                } catch (Exception msgEx) {
+                    logger.warn("Failed to send 2FA login message to player {}: {}", player.getUsername(), msgEx.getMessage());
+                }
+            }
+        }
+        logger.info("Player {} is {} staff", player.getUsername(), isStaff ? "now" : "no longer");
+    }
+
+    /**
+     * State from PostLogin, or worked out now if that handler failed.
+     * Staff count as enrolled while the secret storage is unavailable.
+     */
+    private AuthStates.State stateOf(Player player) {
+        AuthStates.State state = authStates.get(player.getUniqueId());
+        if (state == null) {
+            state = authStates.login(player.getUniqueId(), staffPermissions.isStaff(player),
+                twoFactorManager == null || twoFactorManager.hasSecretKey(player.getUniqueId()),
+                sessionStore.getExpiry(player.getUniqueId()));
+        }
+        return state;
+    }
+
+    /**
+     * Export counts the components already keep; only read on a scrape
+     */
+    private void registerMetrics() {
+        metrics.counter("throttled_attempts_total", "Code attempts rejected by rate limiting",
+            authThrottle::getThrottledAttempts);
+        metrics.counter("locked_out_attempts_total", "Code attempts rejected during a lockout",
+            authThrottle::getLockedOutAttempts);
+        metrics.counter("lockouts_total", "Lockouts started after repeated failures", authThrottle::getLockouts);
+        metrics.gauge("sessions", "Sessions in the local session cache", sessionStore::size);
+        metrics.gauge("pending_authentication", "Online staff who still have to enter a code",
+            pendingAuthentication::size);
+        metrics.gauge("enabled_users", "Players with 2FA enabled", twoFactorManager::getTotalEnabledUsers);
+        metrics.gauge("pending_enrollments", "Setups waiting for their first code",
+            twoFactorManager::getPendingEnrollmentCount);
+        metrics.gauge("online_staff", "Staff members online", roster::getOnlineStaff);
+        metrics.gauge("executor_queue_depth", "Tasks waiting for a worker", executor::getQueueDepth);
+    }
+
+    /**
+     * Reload config.json and push it into everything derived from it
+     *
+     * @return false if the file had not changed
+     * @throws IllegalStateException if the new file is invalid; the previous
+     *         config stays active
+     */
+    public boolean reload() {
+        if (!configManager.reload()) {
+            return false;
+        }
+        applyConfig();
+        return true;
+    }
+
+    /**
+     * Discard setups nobody confirmed, along with their QR codes
+     */
+    private void sweepPendingEnrollments() {
+        for (UUID uuid : twoFactorManager.sweepPendingEnrollments()) {
+            qrCodes.invalidate(uuid);
         }
     }
 
-    private boolean hasStaffPermission(Player player) {
-        // Check for any staff permission - you can customize this logic
-        return player.hasPermission("staff") || 
-               player.hasPermission("moderator") || 
-               player.hasPermission("admin") ||
-               player.hasPermission("helper") ||
-               player.hasPermission("velocity2fa.staff");
+    /**
+     * Push the current snapshot into everything derived from it. Synchronized
+     * so a manual reload racing the file watcher can't apply an older
+     * snapshot last.
+     */
+    private synchronized void applyConfig() {
+        ConfigSnapshot config = configManager.getConfig();
+        twoFactorManager.configure(config);
+        staffPermissions.reload(config.staffPermissions);
+        authThrottle.reload(config.maxAuthAttempts);
+        refreshOnlineStaff();
     }
 
     // Getters for other classes
@@ -136,6 +386,14 @@ public class Velocity2FA {
     public Path getDataDirectory() { return dataDirectory; }
     public TwoFactorManager getTwoFactorManager() { return twoFactorManager; }
     public ConfigManager getConfigManager() { return configManager; }
-    public Map<String, Long> getAuthenticatedPlayers() { return authenticatedPlayers; }
-    public Set<String> getPendingAuthentication() { return pendingAuthentication; }
+    public StaffPermissionResolver getStaffPermissions() { return staffPermissions; }
+    public SessionStore getSessionStore() { return sessionStore; }
+    public PluginExecutor getExecutor() { return executor; }
+    public AuthThrottle getAuthThrottle() { return authThrottle; }
+    public PlayerIndex getPlayerIndex() { return playerIndex; }
+    public Metrics getMetrics() { return metrics; }
+    public OnlineRoster getRoster() { return roster; }
+    public AuthStates getAuthStates() { return authStates; }
+    public QrCodes getQrCodes() { return qrCodes; }
+    public Set<UUID> getPendingAuthentication() { return pendingAuthentication; }
 }
@@ -0,0 +1,56 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An unusable config.json at startup is reported instead of being quietly
+ * replaced by defaults that could open the wrong secret storage.
+ */
+class ConfigManagerTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void missingFileIsCreatedFromDefaults() {
+        ConfigManager manager = new ConfigManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        assertNull(manager.getStartupProblem());
+        assertEquals("json", manager.getConfig().storageFormat);
+        assertTrue(Files.exists(dataDirectory.resolve("config.json")));
+    }
+
+    @Test
+    void unparsableFileIsAStartupProblem() throws Exception {
+        Files.writeString(dataDirectory.resolve("config.json"), "{\"storageFormat\": \"h2\", \"encryption\": ");
+        ConfigManager manager = new ConfigManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        assertNotNull(manager.getStartupProblem());
+
+        // Fixing the file later is picked up, but storage still waits for a restart
+        Files.writeString(dataDirectory.resolve("config.json"), "{\"storageFormat\": \"h2\"}");
+        assertTrue(manager.reload());
+        assertEquals("h2", manager.getConfig().storageFormat);
+        assertNotNull(manager.getStartupProblem());
+    }
+
+    @Test
+    void invalidReloadKeepsTheLastGoodSnapshot() throws Exception {
+        Files.writeString(dataDirectory.resolve("config.json"), "{\"storageFormat\": \"mapped\"}");
+        ConfigManager manager = new ConfigManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        assertNull(manager.getStartupProblem());
+
+        Files.writeString(dataDirectory.resolve("config.json"), "not json");
+        assertThrows(IllegalStateException.class, manager::reload);
+        assertEquals("mapped", manager.getConfig().storageFormat);
+    }
+}
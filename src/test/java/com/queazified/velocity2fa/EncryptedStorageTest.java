@@ -0,0 +1,97 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encrypted secrets whose key can't be loaded must never make an enrolled
+ * player look unenrolled: storage refuses to start, or the player stays
+ * enrolled with no way to pass a code.
+ */
+class EncryptedStorageTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void wrongKeyRefusesToStart() throws Exception {
+        UUID uuid = enroll("json");
+        Files.delete(dataDirectory.resolve("secrets.key"));
+        Files.writeString(dataDirectory.resolve("other.key"), "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=\n");
+
+        assertThrows(IllegalStateException.class, () -> open("json", keyFile("other.key")));
+        assertStillGated(uuid);
+    }
+
+    @Test
+    void missingPassphraseRefusesToStart() {
+        assertThrows(IllegalStateException.class, () -> open("json", new SecretCipher.Settings("passphrase", null, null)));
+    }
+
+    @Test
+    void encryptedSecretsWithEncryptionOffRefuseToStart() {
+        UUID uuid = enroll("json");
+        assertThrows(IllegalStateException.class, () -> open("json", new SecretCipher.Settings("none", null, null)));
+        assertStillGated(uuid);
+
+        // Nothing was rewritten: the right key still opens everything
+        TwoFactorManager reopened = open("json", keyFile("secrets.key"));
+        try {
+            assertTrue(reopened.hasSecretKey(uuid));
+        } finally {
+            reopened.shutdown();
+        }
+    }
+
+    @Test
+    void lazyStoreWithEncryptionOffKeepsPlayersEnrolledButUnverifiable() {
+        UUID uuid = enroll("mapped");
+        TwoFactorManager plain = open("mapped", new SecretCipher.Settings("none", null, null));
+        try {
+            assertTrue(plain.hasSecretKey(uuid), "an undecodable secret must still count as enrolled");
+            assertFalse(plain.verifyCode(uuid, "000000"));
+            assertFalse(plain.verifyCode(uuid, "123456"));
+        } finally {
+            plain.shutdown();
+        }
+    }
+
+    private UUID enroll(String format) {
+        TwoFactorManager manager = open(format, keyFile("secrets.key"));
+        UUID uuid = UUID.randomUUID();
+        try {
+            manager.generateSecretKey(uuid);
+            assertTrue(manager.isEncrypted());
+        } finally {
+            manager.shutdown();
+        }
+        return uuid;
+    }
+
+    /**
+     * What the plugin does when storage can't be opened: everyone is
+     * treated as enrolled, so staff can't reach a server without a code
+     */
+    private static void assertStillGated(UUID uuid) {
+        AuthStates states = new AuthStates();
+        AuthStates.State state = states.login(uuid, true, true, 0);
+        assertFalse(state.isUnlocked(System.currentTimeMillis()));
+    }
+
+    private SecretCipher.Settings keyFile(String name) {
+        return new SecretCipher.Settings("keyfile", dataDirectory.resolve(name), null);
+    }
+
+    private TwoFactorManager open(String format, SecretCipher.Settings encryption) {
+        return new TwoFactorManager(dataDirectory, NOPLogger.NOP_LOGGER, format, null, new Metrics(), encryption);
+    }
+}
@@ -0,0 +1,128 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replays another proxy's session file into a local store: authentications
+ * and tombstones apply by their timestamps, not by the order they are read,
+ * and a tombstone read again after the other proxy compacts is a no-op.
+ */
+class FileSessionTransportTest {
+
+    private static final long POLL_TIMEOUT_MILLIS = 5000;
+
+    @TempDir
+    Path directory;
+
+    private SessionStore sessions;
+    private FileSessionTransport transport;
+    private Path peerFile;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        sessions = new SessionStore();
+        transport = new FileSessionTransport(directory, "local", NOPLogger.NOP_LOGGER);
+        sessions.attach(transport);
+        peerFile = directory.resolve("peer" + FileSessionTransport.SUFFIX);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transport.close();
+    }
+
+    @Test
+    void authenticationOlderThanATombstoneIsNotApplied() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+        long expiry = now + SessionStore.DEFAULT_TTL_MILLIS;
+        appendToPeer("I " + uuid + " " + now + "\n" + "A " + uuid + " " + expiry + " " + (now - 1) + "\n");
+        awaitPeerRead();
+        assertFalse(sessions.isAuthenticated(uuid));
+
+        appendToPeer("A " + uuid + " " + expiry + " " + (now + 1) + "\n");
+        await(() -> sessions.isAuthenticated(uuid));
+    }
+
+    @Test
+    void olderTombstoneDoesNotEndANewerSession() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        sessions.authenticate(uuid, SessionStore.DEFAULT_TTL_MILLIS);
+        appendToPeer("I " + uuid + " " + (System.currentTimeMillis() - 60_000) + "\n");
+        awaitPeerRead();
+        assertTrue(sessions.isAuthenticated(uuid));
+    }
+
+    @Test
+    void newerTombstoneEndsTheSession() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        sessions.authenticate(uuid, SessionStore.DEFAULT_TTL_MILLIS);
+        appendToPeer("I " + uuid + " " + (System.currentTimeMillis() + 1) + "\n");
+        await(() -> !sessions.isAuthenticated(uuid));
+    }
+
+    @Test
+    void compactedFileDoesNotReplayTombstones() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        AtomicInteger dropped = new AtomicInteger();
+        sessions.setListener((changed, expiry) -> {
+            if (changed.equals(uuid) && expiry < 0) {
+                dropped.incrementAndGet();
+            }
+        });
+        long invalidated = System.currentTimeMillis();
+        appendToPeer("I " + uuid + " " + invalidated + "\n");
+        await(() -> dropped.get() == 1);
+
+        // The player authenticates here afterwards; the peer then rewrites its file
+        sessions.authenticate(uuid, SessionStore.DEFAULT_TTL_MILLIS);
+        Path temp = directory.resolve("peer.tmp");
+        Files.writeString(temp, "I " + uuid + " " + invalidated + "\n", StandardCharsets.US_ASCII);
+        Files.move(temp, peerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        awaitPeerRead();
+
+        assertTrue(sessions.isAuthenticated(uuid));
+        assertEquals(1, dropped.get(), "the tombstone was applied again");
+    }
+
+    private void appendToPeer(String lines) throws Exception {
+        Files.writeString(peerFile, lines, StandardCharsets.US_ASCII,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Append a session for a fresh player and wait for it, so every line
+     * before it has been applied
+     */
+    private void awaitPeerRead() throws Exception {
+        UUID marker = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+        appendToPeer("A " + marker + " " + (now + SessionStore.DEFAULT_TTL_MILLIS) + " " + now + "\n");
+        await(() -> sessions.isAuthenticated(marker));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + POLL_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "shared sessions were not picked up in time");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.queazified.velocity2fa;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes what {@link QrCodes} draws, both the PNG and the chat map, and
+ * checks it is exactly the otpauth URI an authenticator app would import;
+ * also that the PNG, which holds the secret, never outlives its cache entry.
+ */
+class QrCodesTest {
+
+    private static final int PIXELS_PER_MODULE = 4;
+    private static final int QUIET_ZONE = 4;
+
+    @TempDir
+    Path dataDirectory;
+
+    private TwoFactorManager manager;
+    private QrCodes qrCodes;
+
+    @BeforeEach
+    void setUp() {
+        manager = new TwoFactorManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        qrCodes = new QrCodes(Runnable::run, NOPLogger.NOP_LOGGER);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void imageDecodesToTheOtpauthUri() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        String uri = manager.generateQRUrl("Notch", TotpSecret.generate().encoded());
+        QrCodes.QrCode code = qrCodes.render(uuid, uri, dataDirectory.resolve("qr")).join();
+
+        assertNotNull(code.image);
+        assertEquals(dataDirectory.resolve("qr").resolve(uuid + ".png"), code.image);
+        assertEquals(uri, decode(ImageIO.read(code.image.toFile())));
+    }
+
+    @Test
+    void chatMapDecodesToTheOtpauthUri() throws Exception {
+        String uri = manager.generateQRUrl("Dinnerbone", TotpSecret.generate().encoded());
+        QrCodes.QrCode code = qrCodes.render(UUID.randomUUID(), uri, null).join();
+
+        assertNull(code.image);
+        assertEquals(uri, decode(toImage(modules(LegacyComponentSerializer.legacySection().serialize(code.chat)))));
+    }
+
+    @Test
+    void issuerAndNonDefaultSettingsSurviveTheRoundTrip() throws Exception {
+        ConfigManager.Config config = new ConfigManager.Config();
+        config.issuerName = "My Network";
+        config.codeTimeStep = 60;
+        config.codeDigits = 8;
+        config.codeAlgorithm = "SHA256";
+        manager.configure(ConfigSnapshot.of(config));
+        String uri = manager.generateQRUrl("jeb_", TotpSecret.generate().encoded());
+        assertTrue(uri.contains("&algorithm=SHA256&digits=8&period=60"), uri);
+
+        QrCodes.QrCode code = qrCodes.render(UUID.randomUUID(), uri, null).join();
+        assertEquals(uri, decode(toImage(modules(LegacyComponentSerializer.legacySection().serialize(code.chat)))));
+    }
+
+    @Test
+    void imageIsDeletedWhenInvalidated() {
+        UUID uuid = UUID.randomUUID();
+        String uri = manager.generateQRUrl("Notch", TotpSecret.generate().encoded());
+        QrCodes.QrCode code = qrCodes.render(uuid, uri, dataDirectory.resolve("qr")).join();
+        assertTrue(Files.exists(code.image));
+
+        qrCodes.invalidate(uuid);
+        assertFalse(Files.exists(code.image));
+        assertEquals(0, qrCodes.size());
+    }
+
+    @Test
+    void imageIsDeletedWhenEvicted() {
+        Path images = dataDirectory.resolve("qr");
+        UUID eldest = UUID.randomUUID();
+        Path eldestImage = qrCodes.render(eldest,
+            manager.generateQRUrl("Notch", TotpSecret.generate().encoded()), images).join().image;
+        for (int i = 0; i < QrCodes.CACHE_SIZE; i++) {
+            qrCodes.render(UUID.randomUUID(), manager.generateQRUrl("player" + i, TotpSecret.generate().encoded()),
+                images).join();
+        }
+
+        assertEquals(QrCodes.CACHE_SIZE, qrCodes.size());
+        assertFalse(Files.exists(eldestImage));
+    }
+
+    /**
+     * Module rows of the chat map: black runs are dark modules, white runs light ones
+     */
+    private static List<boolean[]> modules(String legacy) {
+        List<boolean[]> rows = new ArrayList<>();
+        List<Boolean> row = new ArrayList<>();
+        boolean dark = false;
+        for (int i = 0; i < legacy.length(); i++) {
+            char c = legacy.charAt(i);
+            if (c == LegacyComponentSerializer.SECTION_CHAR && i + 1 < legacy.length()) {
+                char colour = legacy.charAt(++i);
+                if (colour == '0' || colour == 'f') {
+                    dark = colour == '0';
+                }
+            } else if (c == '\n') {
+                rows.add(toArray(row));
+                row.clear();
+            } else if (c == QrCodes.MODULE.charAt(0)) {
+                row.add(dark);
+            }
+        }
+        rows.add(toArray(row));
+        for (boolean[] r : rows) {
+            assertEquals(rows.size(), r.length, "the chat map must be square");
+        }
+        return rows;
+    }
+
+    private static boolean[] toArray(List<Boolean> row) {
+        boolean[] modules = new boolean[row.size()];
+        for (int i = 0; i < modules.length; i++) {
+            modules[i] = row.get(i);
+        }
+        return modules;
+    }
+
+    /**
+     * Draw the modules the way a client shows them, with a full quiet zone around
+     */
+    private static BufferedImage toImage(List<boolean[]> rows) {
+        int side = (rows.size() + 2 * QUIET_ZONE) * PIXELS_PER_MODULE;
+        BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                int row = y / PIXELS_PER_MODULE - QUIET_ZONE;
+                int column = x / PIXELS_PER_MODULE - QUIET_ZONE;
+                boolean dark = row >= 0 && row < rows.size() && column >= 0 && column < rows.size()
+                    && rows.get(row)[column];
+                image.setRGB(x, y, dark ? 0x000000 : 0xFFFFFF);
+            }
+        }
+        return image;
+    }
+
+    private static String decode(BufferedImage image) throws Exception {
+        assertNotNull(image, "not a readable image");
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+        hints.put(DecodeHintType.CHARACTER_SET, "UTF-8");
+        return new QRCodeReader().decode(new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(image))),
+            hints).getText();
+    }
+}
@@ -0,0 +1,102 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery codes are written to recovery.json in the background: issued
+ * codes are only handed out once saved, a code is only accepted once its
+ * use is saved, and removed codes are gone from disk after
+ * {@link RecoveryCodes#close()}.
+ */
+class RecoveryCodesTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void issuedCodesAreSavedBeforeTheyAreReturned() {
+        RecoveryCodes codes = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        UUID uuid = UUID.randomUUID();
+        List<String> issued = codes.issue(uuid).join();
+        assertEquals(RecoveryCodes.CODE_COUNT, issued.size());
+        assertTrue(Files.exists(dataDirectory.resolve("recovery.json")));
+
+        // Read back by a second instance without closing the first
+        RecoveryCodes reopened = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        assertEquals(RecoveryCodes.CODE_COUNT, reopened.remaining(uuid));
+        assertTrue(reopened.consume(uuid, issued.get(0).toLowerCase()));
+        codes.close();
+        reopened.close();
+    }
+
+    @Test
+    void usedAndRemovedCodesSurviveARestart() {
+        RecoveryCodes codes = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        UUID kept = UUID.randomUUID();
+        UUID removed = UUID.randomUUID();
+        List<String> issued = codes.issue(kept).join();
+        codes.issue(removed).join();
+
+        assertTrue(codes.consume(kept, issued.get(3)));
+        assertFalse(codes.consume(kept, issued.get(3)), "a code works once");
+        codes.remove(removed);
+        codes.close();
+
+        RecoveryCodes reopened = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        assertEquals(RecoveryCodes.CODE_COUNT - 1, reopened.remaining(kept));
+        assertFalse(reopened.consume(kept, issued.get(3)));
+        assertTrue(reopened.consume(kept, issued.get(4)));
+        assertEquals(0, reopened.remaining(removed));
+        reopened.close();
+    }
+
+    @Test
+    void failedWriteKeepsThePreviousCodes() throws Exception {
+        RecoveryCodes codes = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        UUID uuid = UUID.randomUUID();
+        List<String> first = codes.issue(uuid).join();
+
+        // A directory where the temp file goes makes every write fail
+        Path blocker = Files.createDirectory(dataDirectory.resolve("recovery.json.tmp"));
+        CompletionException failure = assertThrows(CompletionException.class, () -> codes.issue(uuid).join());
+        assertTrue(failure.getCause() instanceof IOException, String.valueOf(failure.getCause()));
+        assertEquals(RecoveryCodes.CODE_COUNT, codes.remaining(uuid));
+
+        Files.delete(blocker);
+        assertTrue(codes.consume(uuid, first.get(0)), "the codes the player has must still work");
+        codes.close();
+    }
+
+    @Test
+    void codeIsRefusedWhenItsUseCanNotBeSaved() throws Exception {
+        RecoveryCodes codes = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        UUID uuid = UUID.randomUUID();
+        List<String> issued = codes.issue(uuid).join();
+
+        Path blocker = Files.createDirectory(dataDirectory.resolve("recovery.json.tmp"));
+        assertFalse(codes.consume(uuid, issued.get(0)));
+        assertEquals(RecoveryCodes.CODE_COUNT, codes.remaining(uuid), "the used bit must be rolled back");
+
+        Files.delete(blocker);
+        assertTrue(codes.consume(uuid, issued.get(0)));
+        codes.close();
+
+        RecoveryCodes reopened = new RecoveryCodes(dataDirectory, NOPLogger.NOP_LOGGER);
+        assertFalse(reopened.consume(uuid, issued.get(0)));
+        reopened.close();
+    }
+}
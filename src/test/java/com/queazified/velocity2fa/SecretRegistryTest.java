@@ -0,0 +1,181 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress tests for the concurrent secret registry: writers enroll, verify
+ * and remove players while readers look them up and iterate snapshots.
+ */
+class SecretRegistryTest {
+
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int PLAYERS_PER_WRITER = 150;
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void concurrentEnrollVerifyAndRemove() throws Exception {
+        TwoFactorManager manager = new TwoFactorManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        Map<UUID, String> kept = new ConcurrentHashMap<>();
+        Set<UUID> removed = ConcurrentHashMap.newKeySet();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    // Each writer owns its players, so the expected end state is known
+                    for (int i = 0; i < PLAYERS_PER_WRITER; i++) {
+                        UUID uuid = UUID.randomUUID();
+                        String secret = manager.generateSecretKey(uuid);
+                        assertTrue(manager.hasSecretKey(uuid));
+                        assertTrue(manager.verifyCode(uuid, currentCode(secret)), "fresh enrollment must verify");
+                        if (i % 3 == 0) {
+                            manager.removeSecretKey(uuid);
+                            assertFalse(manager.hasSecretKey(uuid));
+                            removed.add(uuid);
+                        } else {
+                            kept.put(uuid, secret);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    while (writing.get()) {
+                        // Snapshots are copies; iterating them while writers run must never fail
+                        for (UUID uuid : manager.getAllSecretUUIDs()) {
+                            manager.hasSecretKey(uuid);
+                        }
+                        assertTrue(manager.getTotalEnabledUsers() >= 0);
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(WRITERS * PLAYERS_PER_WRITER, kept.size() + removed.size());
+        assertEquals(kept.keySet(), manager.getAllSecretUUIDs());
+        assertEquals(kept.size(), manager.getTotalEnabledUsers());
+        for (UUID uuid : removed) {
+            assertFalse(manager.hasSecretKey(uuid));
+        }
+        manager.shutdown();
+
+        // What was persisted matches what the registry ended up with
+        TwoFactorManager reopened = new TwoFactorManager(dataDirectory, NOPLogger.NOP_LOGGER);
+        try {
+            assertEquals(kept.keySet(), reopened.getAllSecretUUIDs());
+            Set<UUID> seen = new HashSet<>();
+            reopened.forEachSecret((uuid, secret) -> {
+                assertEquals(kept.get(uuid), secret);
+                seen.add(uuid);
+            });
+            assertEquals(kept.keySet(), seen);
+        } finally {
+            reopened.shutdown();
+        }
+    }
+
+    @Test
+    void snapshotsStayConsistentWhileWritersRace() throws Exception {
+        SecretRegistry registry = new SecretRegistry();
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            uuids.add(UUID.randomUUID());
+        }
+        TotpSecret secret = TotpSecret.generate();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch churned = new CountDownLatch(WRITERS);
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + 1);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int writer = w;
+                writers.add(pool.submit(() -> {
+                    // Every writer hits every key, then puts back its own share once all are done
+                    for (int round = 0; round < 2_000; round++) {
+                        UUID uuid = uuids.get((round + writer) % uuids.size());
+                        registry.put(uuid, secret);
+                        registry.remove(uuid);
+                    }
+                    churned.countDown();
+                    churned.await();
+                    for (int i = writer; i < uuids.size(); i += WRITERS) {
+                        registry.put(uuids.get(i), secret);
+                    }
+                    return null;
+                }));
+            }
+            Future<?> reader = pool.submit(() -> {
+                while (writing.get()) {
+                    Map<UUID, TotpSecret> snapshot = registry.snapshot();
+                    for (Map.Entry<UUID, TotpSecret> entry : snapshot.entrySet()) {
+                        assertNotNull(entry.getValue());
+                    }
+                    assertTrue(registry.snapshotUUIDs().size() <= uuids.size());
+                }
+            });
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            reader.get(60, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // The last write for each key was a put, and nothing else was added
+        assertEquals(new HashSet<>(uuids), registry.snapshotUUIDs());
+        assertEquals(uuids.size(), registry.size());
+        registry.replaceAll(Map.of(uuids.get(0), secret));
+        assertEquals(Set.of(uuids.get(0)), registry.snapshotUUIDs());
+        assertNull(registry.get(uuids.get(1)));
+    }
+
+    private static String currentCode(String secret) {
+        long step = System.currentTimeMillis() / 1000L / TotpEngine.TIME_STEP_SECONDS;
+        return String.format("%06d", TotpEngine.generate(TotpSecret.fromBase32(secret), step));
+    }
+}
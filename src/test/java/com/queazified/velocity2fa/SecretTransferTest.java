@@ -0,0 +1,82 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Imports spanning many validation chunks apply as if read in file order,
+ * and an export that fails never leaves its plain-text temp file behind.
+ */
+class SecretTransferTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    private TwoFactorManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = new TwoFactorManager(dataDirectory, NOPLogger.NOP_LOGGER);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void laterEntriesWinAcrossChunks() throws Exception {
+        UUID repeated = UUID.randomUUID();
+        String first = TotpSecret.generate().encoded();
+        String last = TotpSecret.generate().encoded();
+        int entries = SecretTransfer.CHUNK_SIZE * (SecretTransfer.MAX_CHUNKS_IN_FLIGHT + 2);
+        List<String> lines = new ArrayList<>(entries + 3);
+        lines.add("uuid,secret");
+        lines.add(repeated + "," + first);
+        for (int i = 0; i < entries; i++) {
+            lines.add(UUID.randomUUID() + "," + TotpSecret.generate().encoded());
+        }
+        lines.add("not-a-uuid,AAAA");
+        lines.add(repeated + "," + last);
+        Path file = dataDirectory.resolve("import.csv");
+        Files.write(file, lines);
+
+        SecretTransfer.Result result = SecretTransfer.importFile(manager, file,
+            TwoFactorManager.ConflictPolicy.FAIL, count -> { });
+
+        assertEquals(entries + 3, result.read);
+        assertEquals(1, result.invalid);
+        assertEquals(entries + 1, result.applied.added);
+        assertEquals(entries + 1, manager.getTotalEnabledUsers());
+
+        Path export = dataDirectory.resolve("export.csv");
+        SecretTransfer.export(manager, export, count -> { });
+        assertTrue(Files.readAllLines(export).contains(repeated + "," + last));
+    }
+
+    @Test
+    void failedExportRemovesItsTempFile() throws Exception {
+        manager.generateSecretKey(UUID.randomUUID());
+        // A non-empty directory can't be replaced by the finished file
+        Path file = dataDirectory.resolve("export.json");
+        Files.createDirectories(file.resolve("occupied"));
+
+        assertThrows(IOException.class, () -> SecretTransfer.export(manager, file, count -> { }));
+        assertFalse(Files.exists(dataDirectory.resolve("export.json.tmp")));
+    }
+}
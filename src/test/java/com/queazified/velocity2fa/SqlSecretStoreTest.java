@@ -0,0 +1,128 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The h2 backend against a real embedded database in a temp directory:
+ * single writes, batched imports that commit or roll back as a whole, and
+ * the one-time import of secrets.json and secrets.bin left by earlier formats.
+ */
+class SqlSecretStoreTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void putGetAndRemove() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        String secret = TotpSecret.generate().encoded();
+        try (SqlSecretStore store = open()) {
+            assertNull(store.get(uuid));
+            store.put(uuid, secret);
+            assertEquals(secret, store.get(uuid));
+            assertTrue(store.contains(uuid));
+            assertEquals(1, store.size());
+        }
+
+        try (SqlSecretStore store = open()) {
+            assertEquals(secret, store.get(uuid), "secrets must survive a restart");
+            assertTrue(store.remove(uuid));
+            assertFalse(store.remove(uuid));
+            assertNull(store.get(uuid));
+            assertFalse(store.contains(uuid));
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    void putAllWritesEveryBatch() throws Exception {
+        Map<UUID, String> secrets = secrets(SqlSecretStore.BATCH_SIZE * 2 + 1);
+        try (SqlSecretStore store = open()) {
+            store.putAll(secrets);
+            assertEquals(secrets.size(), store.size());
+            Map<UUID, String> read = new HashMap<>();
+            store.forEach(read::put);
+            assertEquals(secrets, read);
+        }
+    }
+
+    @Test
+    void putAllIsOneTransaction() throws Exception {
+        // Earlier batches have been executed by the time the last row fails
+        Map<UUID, String> secrets = new LinkedHashMap<>(secrets(SqlSecretStore.BATCH_SIZE + 1));
+        secrets.put(UUID.randomUUID(), "A".repeat(MappedSecretStore.MAX_VALUE_LENGTH + 1));
+        try (SqlSecretStore store = open()) {
+            assertThrows(IllegalStateException.class, () -> store.putAll(secrets));
+            assertEquals(0, store.size());
+
+            // The connection is back in autocommit mode afterwards
+            UUID uuid = UUID.randomUUID();
+            store.put(uuid, TotpSecret.generate().encoded());
+            assertTrue(store.contains(uuid));
+        }
+    }
+
+    @Test
+    void legacyFilesAreImportedOnceAndMovedAside() throws Exception {
+        Map<UUID, String> fromJson = secrets(3);
+        Map<UUID, String> fromMapped = secrets(2);
+        try (JsonSecretStore json = new JsonSecretStore(dataDirectory, NOPLogger.NOP_LOGGER)) {
+            json.putAll(fromJson);
+        }
+        try (MappedSecretStore mapped = new MappedSecretStore(dataDirectory.resolve("secrets.bin"), NOPLogger.NOP_LOGGER)) {
+            mapped.putAll(fromMapped);
+        }
+
+        try (SecretStore store = SecretStores.open(SecretStores.Format.H2, dataDirectory, database(), NOPLogger.NOP_LOGGER)) {
+            assertEquals(fromJson.size() + fromMapped.size(), store.size());
+            fromJson.forEach((uuid, secret) -> assertEquals(secret, store.get(uuid)));
+            fromMapped.forEach((uuid, secret) -> assertEquals(secret, store.get(uuid)));
+        }
+        assertFalse(Files.exists(dataDirectory.resolve("secrets.json")));
+        assertFalse(Files.exists(dataDirectory.resolve("secrets.journal")));
+        assertFalse(Files.exists(dataDirectory.resolve("secrets.bin")));
+        assertTrue(Files.exists(dataDirectory.resolve("secrets.json.migrated")));
+        assertTrue(Files.exists(dataDirectory.resolve("secrets.bin.migrated")));
+
+        // Nothing is left to import, and a removal is not undone by a restart
+        UUID removed = fromJson.keySet().iterator().next();
+        try (SecretStore store = SecretStores.open(SecretStores.Format.H2, dataDirectory, database(), NOPLogger.NOP_LOGGER)) {
+            assertTrue(store.remove(removed));
+        }
+        try (SecretStore store = SecretStores.open(SecretStores.Format.H2, dataDirectory, database(), NOPLogger.NOP_LOGGER)) {
+            assertEquals(fromJson.size() + fromMapped.size() - 1, store.size());
+            assertFalse(store.contains(removed));
+        }
+    }
+
+    private SqlSecretStore open() throws Exception {
+        return new SqlSecretStore(database(), NOPLogger.NOP_LOGGER);
+    }
+
+    private Path database() {
+        return dataDirectory.resolve("secrets");
+    }
+
+    private static Map<UUID, String> secrets(int count) {
+        Map<UUID, String> secrets = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            secrets.put(UUID.randomUUID(), TotpSecret.generate().encoded());
+        }
+        return secrets;
+    }
+}
@@ -0,0 +1,195 @@
+package com.queazified.velocity2fa;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RFC 6238 appendix B vectors plus window, drift and parsing edge cases
+ * for {@link TotpEngine} and {@link TotpSecret}.
+ */
+class TotpEngineTest {
+
+    private static final TotpSecret SHA1_SEED = seed("12345678901234567890");
+    private static final TotpSecret SHA256_SEED = seed("12345678901234567890123456789012");
+    private static final TotpSecret SHA512_SEED = seed("1234567890123456789012345678901234567890"
+        + "123456789012345678901234");
+
+    private static final long[] TIMES = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+    private static final String[] SHA1_CODES = {"94287082", "07081804", "14050471", "89005924", "69279037", "65353130"};
+    private static final String[] SHA256_CODES = {"46119246", "68084774", "67062674", "91819424", "90698825", "77737706"};
+    private static final String[] SHA512_CODES = {"90693936", "25091201", "99943326", "93441116", "38618901", "47863826"};
+
+    @Test
+    void rfc6238Sha1Vectors() {
+        assertVectors(SHA1_SEED, TotpEngine.Algorithm.SHA1, SHA1_CODES);
+    }
+
+    @Test
+    void rfc6238Sha256Vectors() {
+        assertVectors(SHA256_SEED, TotpEngine.Algorithm.SHA256, SHA256_CODES);
+    }
+
+    @Test
+    void rfc6238Sha512Vectors() {
+        assertVectors(SHA512_SEED, TotpEngine.Algorithm.SHA512, SHA512_CODES);
+    }
+
+    @Test
+    void sixDigitCodesAreTheLowDigitsOfTheVector() {
+        for (int i = 0; i < TIMES.length; i++) {
+            long step = TIMES[i] / TotpEngine.TIME_STEP_SECONDS;
+            assertEquals(SHA1_CODES[i].substring(2), String.format("%06d", TotpEngine.generate(SHA1_SEED, step)));
+        }
+    }
+
+    @Test
+    void windowOfThreeAcceptsOneStepEitherWay() {
+        TotpEngine engine = new TotpEngine(3);
+        long now = 1234567890L * 1000L;
+        long step = now / 1000L / TotpEngine.TIME_STEP_SECONDS;
+        for (int offset = -3; offset <= 3; offset++) {
+            boolean inWindow = Math.abs(offset) <= 1;
+            assertEquals(inWindow, engine.verify(fresh(), code(step + offset), now), "offset " + offset);
+        }
+    }
+
+    @Test
+    void windowOfOneOnlyAcceptsTheCurrentStep() {
+        TotpEngine engine = new TotpEngine(1);
+        long now = 2000000000L * 1000L;
+        long step = now / 1000L / TotpEngine.TIME_STEP_SECONDS;
+        assertTrue(engine.verify(fresh(), code(step), now));
+        assertFalse(engine.verify(fresh(), code(step - 1), now));
+        assertFalse(engine.verify(fresh(), code(step + 1), now));
+    }
+
+    @Test
+    void stepBoundaryIsExclusive() {
+        TotpEngine engine = new TotpEngine(1);
+        // 59.999s is still the step that started at 30s; 60s starts the next one
+        assertTrue(engine.verify(fresh(), code(1), 59_999L));
+        assertFalse(engine.verify(fresh(), code(1), 60_000L));
+        assertTrue(engine.verify(fresh(), code(2), 60_000L));
+    }
+
+    @Test
+    void matchReturnsTheStepWithoutLearningDrift() {
+        TotpEngine engine = new TotpEngine(5);
+        TotpEngine.Settings settings = engine.getSettings();
+        TotpSecret secret = fresh();
+        long now = 1111111111L * 1000L;
+        long step = settings.stepAt(now);
+
+        assertEquals(step + 2, engine.match(settings, secret, Integer.parseInt(code(step + 2)), now));
+        assertEquals(0, secret.drift(), "a match alone must not move the drift");
+
+        engine.accept(settings, secret, step + 2, now);
+        assertEquals(2, secret.drift());
+
+        // A replay of an older code is rejected by the caller, so accept() is never reached
+        assertEquals(step - 1, engine.match(settings, secret, Integer.parseInt(code(step - 1)), now));
+        assertEquals(2, secret.drift());
+    }
+
+    @Test
+    void learnedDriftIsClampedToASmallerWindow() {
+        TotpEngine wide = new TotpEngine(7);
+        TotpSecret secret = fresh();
+        long now = 1234567890L * 1000L;
+        long step = wide.getSettings().stepAt(now);
+        assertTrue(wide.verify(secret, code(step + 3), now));
+        assertEquals(3, secret.drift());
+
+        // After shrinking the window the old drift must not widen it
+        TotpEngine narrow = new TotpEngine(3);
+        assertFalse(narrow.verify(secret, code(step + 3), now));
+        assertTrue(narrow.verify(secret, code(step - 1), now));
+        assertEquals(-1, secret.drift());
+    }
+
+    @Test
+    void driftAcrossWindowsStillFindsTheCode() {
+        TotpEngine engine = new TotpEngine(21);
+        TotpSecret secret = fresh();
+        long now = 2000000000L * 1000L;
+        long step = engine.getSettings().stepAt(now);
+        for (int offset = -10; offset <= 10; offset++) {
+            assertTrue(engine.verify(secret, code(step + offset), now), "offset " + offset);
+            assertEquals(offset, secret.drift());
+        }
+        assertFalse(engine.verify(secret, code(step + 11), now));
+    }
+
+    @Test
+    void malformedCodesAreRejected() {
+        assertEquals(-1, TotpEngine.parseCode(null, 6));
+        assertEquals(-1, TotpEngine.parseCode("12345", 6));
+        assertEquals(-1, TotpEngine.parseCode("1234567", 6));
+        assertEquals(-1, TotpEngine.parseCode("12a456", 6));
+        assertEquals(-1, TotpEngine.parseCode("12 456", 6));
+        assertEquals(42, TotpEngine.parseCode("000042", 6));
+        assertFalse(new TotpEngine(3).verify(fresh(), "abcdef", 59_000L));
+    }
+
+    @Test
+    void reconfigureReportsTimeStepChanges() {
+        TotpEngine engine = new TotpEngine(3);
+        assertFalse(engine.reconfigure(5, 30, 6, TotpEngine.Algorithm.SHA1));
+        assertTrue(engine.reconfigure(5, 60, 6, TotpEngine.Algorithm.SHA1));
+        assertEquals(60, engine.getSettings().timeStepSeconds);
+        assertEquals(5, engine.getSettings().windowSize);
+    }
+
+    @Test
+    void outOfRangeSettingsAreClamped() {
+        TotpEngine engine = new TotpEngine(99, 0, 12, null);
+        TotpEngine.Settings settings = engine.getSettings();
+        assertEquals(TotpEngine.MAX_WINDOW, settings.windowSize);
+        assertEquals(1, settings.timeStepSeconds);
+        assertEquals(8, settings.digits);
+        assertEquals(TotpEngine.Algorithm.SHA1, settings.algorithm);
+    }
+
+    @Test
+    void base32RoundTripsAndAcceptsLowercaseAndPadding() {
+        byte[] raw = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+        String encoded = TotpSecret.encodeBase32(raw);
+        assertEquals("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", encoded);
+        assertEquals(new String(raw, StandardCharsets.US_ASCII),
+            new String(TotpSecret.decodeBase32(encoded.toLowerCase() + "===="), StandardCharsets.US_ASCII));
+        assertEquals(20, TotpSecret.decodeBase32(TotpSecret.generate().encoded()).length);
+        assertThrows(IllegalArgumentException.class, () -> TotpSecret.fromBase32("NOT-BASE32!"));
+        assertThrows(IllegalArgumentException.class, () -> TotpSecret.fromBase32(""));
+    }
+
+    private static void assertVectors(TotpSecret seed, TotpEngine.Algorithm algorithm, String[] codes) {
+        TotpEngine engine = new TotpEngine(1, 30, 8, algorithm);
+        for (int i = 0; i < TIMES.length; i++) {
+            long step = TIMES[i] / 30;
+            assertEquals(codes[i], String.format("%08d", TotpEngine.generate(seed, step, algorithm, 8)),
+                algorithm + " at " + TIMES[i]);
+            assertTrue(engine.verify(seed, codes[i], TIMES[i] * 1000L), algorithm + " verify at " + TIMES[i]);
+        }
+    }
+
+    private static TotpSecret seed(String ascii) {
+        return TotpSecret.fromBase32(TotpSecret.encodeBase32(ascii.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * A copy of the SHA1 seed with no learned drift
+     */
+    private static TotpSecret fresh() {
+        return TotpSecret.fromBase32(SHA1_SEED.encoded());
+    }
+
+    private static String code(long step) {
+        return String.format("%06d", TotpEngine.generate(SHA1_SEED, step));
+    }
+}